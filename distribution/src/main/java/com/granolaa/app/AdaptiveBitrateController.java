@@ -0,0 +1,106 @@
+package com.granolaa.app;
+
+/**
+ * Adjusts one stream's {@link StreamSettings} to the uplink. It keeps a moving
+ * average of send latency; when sends get slow or fail it steps down JPEG
+ * quality first, then fps, then scale, and once the link has been healthy for a
+ * while it steps back up in the reverse order. The settings it was created with
+ * are the ceiling it never goes above.
+ */
+public class AdaptiveBitrateController implements SendListener {
+
+    private static final long CONGESTED_MS = 300;
+    private static final long HEALTHY_MS = 100;
+    private static final long DOWN_COOLDOWN_MS = 1000;
+    private static final long UP_AFTER_MS = 5000;
+    private static final double SMOOTHING = 0.2;
+
+    private static final float QUALITY_STEP = 0.15f;
+    private static final float MIN_QUALITY = 0.3f;
+    private static final int MIN_FPS = 1;
+    private static final double SCALE_STEP = 0.1;
+
+    private final String name;
+    private final StreamSettings settings;
+    private final float maxQuality;
+    private final int maxFps;
+    private final double maxScale;
+    private final double minScale;
+
+    private double averageMs = -1;
+    private long lastChange;
+    private long healthySince = -1;
+
+    public AdaptiveBitrateController(String name, StreamSettings settings) {
+        this.name = name;
+        this.settings = settings;
+        this.maxQuality = settings.getQuality();
+        this.maxFps = settings.getFps();
+        this.maxScale = settings.getScale();
+        this.minScale = maxScale / 2;
+    }
+
+    @Override
+    public void onSent(int bytes, long latencyNanos) {
+        recordSend(latencyNanos / 1_000_000, System.currentTimeMillis());
+    }
+
+    @Override
+    public void onFailure() {
+        recordFailure(System.currentTimeMillis());
+    }
+
+    synchronized void recordSend(long latencyMs, long now) {
+        averageMs = averageMs < 0 ? latencyMs : averageMs + SMOOTHING * (latencyMs - averageMs);
+        if (averageMs > CONGESTED_MS) {
+            healthySince = -1;
+            stepDown(now);
+        } else if (averageMs < HEALTHY_MS) {
+            if (healthySince < 0) healthySince = now;
+            if (now - healthySince >= UP_AFTER_MS && now - lastChange >= UP_AFTER_MS) {
+                stepUp(now);
+            }
+        } else {
+            healthySince = -1;
+        }
+    }
+
+    synchronized void recordFailure(long now) {
+        healthySince = -1;
+        stepDown(now);
+    }
+
+    private void stepDown(long now) {
+        if (now - lastChange < DOWN_COOLDOWN_MS) return;
+        if (settings.getQuality() > MIN_QUALITY) {
+            settings.setQuality(Math.max(MIN_QUALITY, settings.getQuality() - QUALITY_STEP));
+        } else if (settings.getFps() > MIN_FPS) {
+            settings.setFps(Math.max(MIN_FPS, settings.getFps() * 2 / 3));
+        } else if (settings.getScale() > minScale) {
+            settings.setScale(Math.max(minScale, settings.getScale() - SCALE_STEP));
+        } else {
+            return; // already at the floor
+        }
+        changed(now, "congested");
+    }
+
+    private void stepUp(long now) {
+        if (settings.getScale() < maxScale) {
+            settings.setScale(Math.min(maxScale, settings.getScale() + SCALE_STEP));
+        } else if (settings.getFps() < maxFps) {
+            settings.setFps(Math.min(maxFps, settings.getFps() + Math.max(1, settings.getFps() / 2)));
+        } else if (settings.getQuality() < maxQuality) {
+            settings.setQuality(Math.min(maxQuality, settings.getQuality() + QUALITY_STEP));
+        } else {
+            return; // already at the configured settings
+        }
+        healthySince = now;
+        changed(now, "recovered");
+    }
+
+    private void changed(long now, String reason) {
+        lastChange = now;
+        String average = averageMs < 0 ? "" : " (avg send " + Math.round(averageMs) + " ms)"; // none before a send
+        System.out.println("[" + name + "] " + reason + average + ": " + settings);
+    }
+}
@@ -1,45 +1,86 @@
 package com.granolaa.app;
 
+import java.lang.management.ManagementFactory;
+import java.util.List;
 import java.util.Scanner;
 
 public class App {
 
     private static final String DEFAULT_SERVER_URL = "https://granolaa.opencodingsociety.com";
+    /** How long to wait for the screen's first frame before reporting that streaming has started. */
+    private static final long READY_TIMEOUT_MS = 5000;
 
     public static void main(String[] args) {
         String serverUrl = System.getProperty("server.url",
                 System.getProperty("server",
                         System.getenv().getOrDefault("SERVER_URL", DEFAULT_SERVER_URL)));
 
-        ScreenCapture screenCapture = new ScreenCapture();
-        WebcamCapture webcamCapture = new WebcamCapture();
+        List<FrameSource> screens = ScreenCapture.fromProperties(Boolean.getBoolean("screen.delta"));
+        FrameSource screenCapture = screens.get(0);
+        StreamSettings webcamSettings = WebcamCapture.defaultSettings();
+        FrameSource webcamCapture = FrameSource.fromProperties("webcam", webcamSettings, false,
+                () -> new WebcamCapture(webcamSettings));
 
-        Thread screenThread = new Thread(screenCapture, "screen-capture");
-        Thread webcamThread = new Thread(webcamCapture, "webcam-capture");
-        screenThread.setDaemon(true);
-        webcamThread.setDaemon(true);
-        screenThread.start();
-        webcamThread.start();
-
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        for (FrameSource screen : screens) {
+            Metrics.register(screen);
+            startCapture(screen);
         }
+        Metrics.register(webcamCapture);
+        Metrics.startServerFromProperties();
+        startCapture(webcamCapture);
 
         StreamClient streamClient = new StreamClient(serverUrl, screenCapture, webcamCapture);
+        for (FrameSource screen : screens.subList(1, screens.size())) {
+            streamClient.addScreen(screen);
+        }
         streamClient.start();
 
         System.out.println("Server: " + serverUrl + "  Client ID: " + streamClient.getClientId());
-        System.out.println("Sending once per second. Press Enter to stop.");
+        reportReady(screenCapture);
 
-        try (Scanner scanner = new Scanner(System.in)) {
-            scanner.nextLine();
+        // -Dapp.seconds stops on its own, for unattended runs (AppCDS training, startup timing)
+        long seconds = Long.getLong("app.seconds", -1);
+        if (seconds >= 0) {
+            try {
+                Thread.sleep(seconds * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            System.out.println("Press Enter to stop.");
+            try (Scanner scanner = new Scanner(System.in)) {
+                scanner.nextLine();
+            }
         }
 
         streamClient.stop();
-        screenCapture.stop();
+        screens.forEach(FrameSource::stop);
         webcamCapture.stop();
+        Metrics.stopServer();
         System.out.println("Stopped.");
     }
+
+    /**
+     * Prints how long after start the screen had its first frame to send. Only a
+     * report: each sender already waits for its own source's first frame, so a
+     * slow webcam never holds back the screen.
+     */
+    private static void reportReady(FrameSource screen) {
+        try {
+            if (!screen.awaitReady(READY_TIMEOUT_MS)) {
+                System.err.println("[" + screen.getName() + "] no frame after " + READY_TIMEOUT_MS + " ms");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        System.out.println("Streaming " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after start.");
+    }
+
+    private static void startCapture(FrameSource source) {
+        Thread thread = new Thread(source, source.getName() + "-capture");
+        thread.setDaemon(true);
+        thread.start();
+    }
 }
@@ -0,0 +1,225 @@
+package com.granolaa.app;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Uploads what a stream captured during a network outage, once the link is back.
+ * As a {@link SendListener} on the live sender it notes when sends start failing
+ * and when they succeed again; that interval is then read back from the stream's
+ * {@link FrameSpool}, thinned to one frame per -Dspool.catchup.interval ms
+ * (default {@value #DEFAULT_INTERVAL_MS}), and posted one frame per request to
+ * /stream/catchup at no more than -Dspool.catchup.fps (default
+ * {@value #DEFAULT_FPS}). Catch-up runs on a low-priority thread and only sends
+ * while the live sender has nothing waiting, so live frames always go first.
+ * <p>
+ * Where the frames not yet delivered start is kept in the spool file (see
+ * {@link FrameSpool#pendingFrom()}), so an outage that outlasts the client is
+ * uploaded by the next run, once its first live frame has gone out (the relay
+ * only takes catch-up frames from clients it has seen live). The relay keeps
+ * catch-up frames for its outage timeline and drops any it already has. It
+ * answers each request once the frame is stored; an unknown client (403) or a
+ * server error is retried after the next successful live send, while any other
+ * error (e.g. no room left) ends that outage's upload.
+ */
+final class CatchUpUpload implements SendListener {
+
+    static final long DEFAULT_INTERVAL_MS = 1000;
+    static final int DEFAULT_FPS = 2;
+    /** Frames written this long before a break may never have arrived (the write timeout). */
+    private static final long SLACK_MS = 5000;
+    private static final long IDLE_POLL_MS = 50;
+
+    private final OkHttpClient client;
+    private final String url;
+    private final String name;
+    private final FrameSpool spool;
+    private final BooleanSupplier liveIdle;
+    private final BooleanSupplier running;
+    private final long intervalMs;
+    private final long pacingMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition outageEnded = lock.newCondition();
+    private final ArrayDeque<long[]> outages = new ArrayDeque<>();
+    private long lastSuccessAt = System.currentTimeMillis();
+    private long outageStart;
+    /** Where the last run's undelivered frames start, until the first live send queues them; 0 if none. */
+    private long leftover;
+    /** The outage being uploaded, or null. */
+    private long[] current;
+
+    /**
+     * {@code liveIdle} is true while the live sender has no frame waiting; catch-up
+     * frames are only sent then.
+     */
+    CatchUpUpload(OkHttpClient client, String url, String name, FrameSpool spool,
+                  BooleanSupplier liveIdle, BooleanSupplier running) {
+        this(client, url, name, spool, liveIdle, running,
+                Long.getLong("spool.catchup.interval", DEFAULT_INTERVAL_MS),
+                1000L / Math.max(1, Integer.getInteger("spool.catchup.fps", DEFAULT_FPS)));
+    }
+
+    CatchUpUpload(OkHttpClient client, String url, String name, FrameSpool spool,
+                  BooleanSupplier liveIdle, BooleanSupplier running, long intervalMs, long pacingMs) {
+        this.client = client;
+        this.url = url;
+        this.name = name;
+        this.spool = spool;
+        this.liveIdle = liveIdle;
+        this.running = running;
+        this.intervalMs = intervalMs;
+        this.pacingMs = pacingMs;
+        this.leftover = spool.pendingFrom();
+    }
+
+    @Override
+    public void onSent(int bytes, long latencyNanos) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (leftover != 0) {
+                // Only now does the relay know this client, so the last run's outage can go
+                outages.add(new long[] {leftover, now});
+                leftover = 0;
+                outageEnded.signalAll();
+            }
+            if (outageStart != 0) {
+                outages.add(new long[] {outageStart, now});
+                outageStart = 0;
+                outageEnded.signalAll();
+            }
+            lastSuccessAt = now;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onFailure() {
+        lock.lock();
+        try {
+            if (outageStart != 0) return;
+            outageStart = lastSuccessAt - SLACK_MS;
+            savePending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Makes the next outage start no later than {@code fromMillis}, for a catch-up cut short. */
+    private void resumeFrom(long fromMillis) {
+        lock.lock();
+        try {
+            outageStart = outageStart == 0 ? fromMillis : Math.min(outageStart, fromMillis);
+            savePending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Marks the current outage done (uploaded, given up or cut short and requeued). */
+    private void finished() {
+        lock.lock();
+        try {
+            current = null;
+            savePending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Writes the start of the oldest outage not yet uploaded into the spool, 0 if none. Call holding the lock. */
+    private void savePending() {
+        long from = outageStart;
+        if (leftover != 0) from = from == 0 ? leftover : Math.min(from, leftover);
+        for (long[] outage : outages) from = from == 0 ? outage[0] : Math.min(from, outage[0]);
+        if (current != null) from = from == 0 ? current[0] : Math.min(from, current[0]);
+        spool.setPendingFrom(from);
+    }
+
+    /** Waits for the next outage that has ended and returns its [start, end] in ms, or null if stopped. */
+    long[] awaitOutage() throws InterruptedException {
+        // A lock, not a monitor: a virtual thread waiting here must not pin its carrier
+        lock.lock();
+        try {
+            while (outages.isEmpty()) {
+                if (!running.getAsBoolean()) return null;
+                outageEnded.await(1, TimeUnit.SECONDS);
+            }
+            current = outages.poll();
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Uploads the catch-up of every outage until stopped. */
+    void run() {
+        try {
+            long[] outage;
+            while ((outage = awaitOutage()) != null) {
+                List<Long> sequences = spool.thinned(outage[0], outage[1], intervalMs);
+                System.out.println("[" + name + "] outage of " + (outage[1] - outage[0]) / 1000 + " s, uploading "
+                        + sequences.size() + " spooled frames");
+                for (long sequence : sequences) {
+                    while (!liveIdle.getAsBoolean()) {
+                        if (!running.getAsBoolean()) return;
+                        Thread.sleep(IDLE_POLL_MS);
+                    }
+                    EncodedFrame frame = spool.read(sequence);
+                    if (frame == null) continue; // overwritten while the link was down
+                    int status;
+                    try {
+                        status = send(frame);
+                    } catch (IOException e) {
+                        System.err.println("[" + name + "] catch-up: " + e.getMessage());
+                        status = -1;
+                    }
+                    if (retryable(status)) {
+                        // Down again or not yet known: the rest goes out after the next successful live send
+                        resumeFrom(frame.capturedAtMillis);
+                        break;
+                    }
+                    if (status / 100 != 2) break; // refused for good: give this outage up
+                    Thread.sleep(pacingMs);
+                }
+                finished();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * True for a failed request (-1), an unknown client (the relay restarted or has
+     * not seen a live frame yet) and server errors, except 507: that frame was older
+     * than anything the relay has room for, which no retry changes.
+     */
+    private static boolean retryable(int status) {
+        return status == -1 || status == 403 || (status >= 500 && status != 507);
+    }
+
+    /** Posts one spooled frame and returns the response code. */
+    private int send(EncodedFrame frame) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .post(FrameHeader.requestBody(frame, true)) // the relay orders outage frames by capture time
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.body() != null) {
+                response.body().bytes(); // Read and discard
+            }
+            if (!response.isSuccessful()) System.err.println("[" + name + "] catch-up " + response.code());
+            return response.code();
+        }
+    }
+}
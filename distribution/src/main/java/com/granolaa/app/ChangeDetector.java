@@ -0,0 +1,207 @@
+package com.granolaa.app;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decides before encoding whether a grabbed frame is worth sending. Each frame
+ * is reduced to a signature of mean luminance over a {@value #COLUMNS} x
+ * {@value #ROWS} grid of cells, taken over every pixel so that a line one pixel
+ * wide is not missed; the frame counts as changed when any cell differs from the
+ * last encoded frame by more than the threshold (in 0-255 luminance levels).
+ * Unchanged frames are still let through once every keep-alive interval, so
+ * viewers can tell an idle stream from a dead one. Not thread-safe: the capture thread owns it.
+ */
+final class ChangeDetector {
+
+    static final int COLUMNS = 64;
+    static final int ROWS = 36;
+    static final int DEFAULT_THRESHOLD = 2;
+    static final long DEFAULT_KEEPALIVE_MS = 2000;
+    /** Fraction bits kept in the cell means, so small differences are not rounded away. */
+    private static final int MEAN_BITS = 4;
+
+    private final int threshold;
+    private final long keepAliveMs;
+    private int[] reference = new int[COLUMNS * ROWS];
+    private int[] current = new int[COLUMNS * ROWS];
+    private final int[] sums = new int[COLUMNS * ROWS];
+    private final int[] counts = new int[COLUMNS * ROWS];
+    private int[] cellOfColumn = new int[0];
+    private int width = -1;
+    private int height = -1;
+    private long lastEncodedAt;
+    private boolean keepAlive;
+
+    ChangeDetector(int threshold, long keepAliveMs) {
+        this.threshold = threshold;
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    /**
+     * Reads -D&lt;name&gt;.change.threshold (default {@value #DEFAULT_THRESHOLD}, 0 to
+     * skip only identical frames) and -D&lt;name&gt;.keepalive in ms (default
+     * {@value #DEFAULT_KEEPALIVE_MS}). Returns null, meaning every frame is
+     * encoded, when the threshold is negative.
+     */
+    static ChangeDetector fromProperties(String name) {
+        int threshold = Integer.getInteger(name + ".change.threshold", DEFAULT_THRESHOLD);
+        if (threshold < 0) return null;
+        return new ChangeDetector(threshold, Long.getLong(name + ".keepalive", DEFAULT_KEEPALIVE_MS));
+    }
+
+    /**
+     * True if the frame should be encoded: it changed, its size changed, or the
+     * keep-alive is due. The frame then becomes the reference for the next ones.
+     */
+    boolean shouldEncode(BufferedImage image, long nowMs) {
+        boolean resized = resize(image.getWidth(), image.getHeight());
+        signature(image);
+        return decide(resized, nowMs);
+    }
+
+    /**
+     * Same as {@link #shouldEncode(BufferedImage, long)} for an 8-bit BGR frame
+     * outside the heap (an OpenCV Mat's data), with rows {@code stride} bytes apart.
+     */
+    boolean shouldEncode(ByteBuffer bgr, int width, int height, int stride, long nowMs) {
+        boolean resized = resize(width, height);
+        for (int y = 0; y < height; y++) {
+            int rowCell = y * ROWS / height * COLUMNS;
+            int rowStart = y * stride;
+            for (int x = 0; x < width; x++) {
+                int i = rowStart + x * 3;
+                int cell = rowCell + cellOfColumn[x];
+                sums[cell] += ((bgr.get(i + 2) & 0xFF) * 77 + (bgr.get(i + 1) & 0xFF) * 150
+                        + (bgr.get(i) & 0xFF) * 29) >> 8;
+                counts[cell]++;
+            }
+        }
+        means();
+        return decide(resized, nowMs);
+    }
+
+    private boolean decide(boolean resized, long nowMs) {
+        boolean changed = resized || differs();
+        if (!changed && nowMs - lastEncodedAt < keepAliveMs) {
+            return false;
+        }
+        keepAlive = !changed;
+        int[] swap = reference;
+        reference = current;
+        current = swap;
+        lastEncodedAt = nowMs;
+        return true;
+    }
+
+    /** True if the frame last let through was unchanged, only sent because the keep-alive was due. */
+    boolean wasKeepAlive() {
+        return keepAlive;
+    }
+
+    private boolean differs() {
+        int limit = threshold << MEAN_BITS;
+        for (int i = 0; i < current.length; i++) {
+            if (Math.abs(current[i] - reference[i]) > limit) return true;
+        }
+        return false;
+    }
+
+    /** Starts a signature of a frame of the given size; true if the size changed. */
+    private boolean resize(int w, int h) {
+        boolean resized = w != width || h != height;
+        if (w != width) {
+            cellOfColumn = new int[w];
+            for (int x = 0; x < w; x++) cellOfColumn[x] = x * COLUMNS / w;
+        }
+        width = w;
+        height = h;
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        return resized;
+    }
+
+    /**
+     * Fills {@link #current} with the frame's cell means. Reads the pixel array
+     * directly for packed int RGB and interleaved byte (BGR, ABGR) images, which
+     * covers the screen, webcam and x11grab frames; anything else goes through
+     * {@link BufferedImage#getRGB(int, int)}.
+     */
+    private void signature(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            signatureOfInts(raster);
+        } else if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel) {
+            signatureOfBytes(raster);
+        } else {
+            for (int y = 0; y < height; y++) {
+                int rowCell = y * ROWS / height * COLUMNS;
+                for (int x = 0; x < width; x++) {
+                    int rgb = image.getRGB(x, y);
+                    int cell = rowCell + cellOfColumn[x];
+                    sums[cell] += (((rgb >> 16) & 0xFF) * 77 + ((rgb >> 8) & 0xFF) * 150 + (rgb & 0xFF) * 29) >> 8;
+                    counts[cell]++;
+                }
+            }
+        }
+        means();
+    }
+
+    private void signatureOfInts(WritableRaster raster) {
+        int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+        int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        int offset = raster.getDataBuffer().getOffset()
+                - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+        for (int y = 0; y < height; y++) {
+            int rowCell = y * ROWS / height * COLUMNS;
+            int rowStart = offset + y * stride;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[rowStart + x];
+                int cell = rowCell + cellOfColumn[x];
+                sums[cell] += (((rgb >> 16) & 0xFF) * 77 + ((rgb >> 8) & 0xFF) * 150 + (rgb & 0xFF) * 29) >> 8;
+                counts[cell]++;
+            }
+        }
+    }
+
+    /** Interleaved bytes in any band order; the sample model says where red, green and blue sit. */
+    private void signatureOfBytes(WritableRaster raster) {
+        byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+        PixelInterleavedSampleModel model = (PixelInterleavedSampleModel) raster.getSampleModel();
+        int stride = model.getScanlineStride();
+        int pixelStride = model.getPixelStride();
+        int[] bands = model.getBandOffsets();
+        int r = bands[0];
+        int g = bands[1];
+        int b = bands[2];
+        int offset = raster.getDataBuffer().getOffset()
+                - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX() * pixelStride;
+        for (int y = 0; y < height; y++) {
+            int rowCell = y * ROWS / height * COLUMNS;
+            int i = offset + y * stride;
+            for (int x = 0; x < width; x++, i += pixelStride) {
+                int cell = rowCell + cellOfColumn[x];
+                sums[cell] += ((pixels[i + r] & 0xFF) * 77 + (pixels[i + g] & 0xFF) * 150
+                        + (pixels[i + b] & 0xFF) * 29) >> 8;
+                counts[cell]++;
+            }
+        }
+    }
+
+    private void means() {
+        for (int i = 0; i < current.length; i++) {
+            current[i] = counts[i] == 0 ? 0 : (sums[i] << MEAN_BITS) / counts[i];
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.granolaa.app;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps one long-lived chunked POST open for a stream and writes each frame into
+ * the request body as a [4-byte length][payload] record (payload optionally
+ * behind a {@link FrameHeader}), the format server.js
+ * parses in feedChunk. Frames are written as soon as the feed hands them over.
+ * If the connection breaks, the upload is reopened after a backoff.
+ */
+class ChunkedUpload {
+
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+    private static final long MIN_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    private final OkHttpClient client;
+    private final String url;
+    private final String name;
+    private final FrameFeed frames;
+    private final BooleanSupplier running;
+    private final SendListener listener;
+    private long backoffMs = MIN_BACKOFF_MS;
+
+    ChunkedUpload(OkHttpClient client, String url, String name, FrameFeed frames,
+                  BooleanSupplier running, SendListener listener) {
+        this.client = client;
+        this.url = url;
+        this.name = name;
+        this.frames = frames;
+        this.running = running;
+        this.listener = listener;
+    }
+
+    /** Streams until stopped, reconnecting whenever the upload fails. */
+    void run() {
+        int attempt = 0;
+        while (running.getAsBoolean()) {
+            Request request = new Request.Builder()
+                    .url(url)
+                    .post(new FrameStreamBody())
+                    .build();
+            if (attempt++ == 0) System.out.println("[" + name + "] streaming POST " + url);
+            try (Response response = client.newCall(request).execute()) {
+                if (!response.isSuccessful()) System.err.println("[" + name + "] " + response.code());
+                if (response.body() != null) {
+                    response.body().bytes(); // Read and discard
+                }
+            } catch (IOException e) {
+                if (!running.getAsBoolean()) break;
+                listener.onFailure();
+                System.err.println("[" + name + "] stream broken: " + e.getMessage()
+                        + " (reconnecting in " + backoffMs + " ms)");
+                if (!pause(backoffMs)) break;
+                backoffMs = Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+            }
+        }
+    }
+
+    /**
+     * Writes the record straight from the pooled buffer, then hands the buffer back.
+     * The flush blocks while the socket's send buffer is full, so its duration is
+     * what the listener sees as send latency. That only tracks the uplink if the
+     * buffer is small (see {@link StreamClient#withSendBuffer}); with the OS
+     * default it shows congestion seconds late.
+     */
+    void writeFrame(BufferedSink sink, EncodedFrame frame) throws IOException {
+        try {
+            long start = System.nanoTime();
+            FrameHeader.writeRecord(sink, frame);
+            sink.flush(); // push the chunk out now rather than when the buffer fills
+            listener.onSent(FrameHeader.wireLength(frame), System.nanoTime() - start);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private boolean pause(long ms) {
+        try {
+            Thread.sleep(ms);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Request body that never ends on its own: it writes frames until the client stops. */
+    private class FrameStreamBody extends RequestBody {
+
+        @Override
+        public MediaType contentType() {
+            return OCTET_STREAM;
+        }
+
+        @Override
+        public long contentLength() {
+            return -1; // chunked transfer encoding
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return true; // never replay a live stream on retry
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            while (running.getAsBoolean()) {
+                EncodedFrame frame;
+                try {
+                    frame = frames.next();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (frame != null) {
+                    writeFrame(sink, frame);
+                    backoffMs = MIN_BACKOFF_MS;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.granolaa.app;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Downscales TYPE_INT_RGB frames by working on their {@code int[]} pixels
+ * directly, into a TYPE_INT_RGB image that is reused while the size stays the
+ * same. Exact 1/2 and 1/4 ratios average 2x2 or 4x4 blocks; any other ratio is
+ * area-averaged with 8-bit fixed-point weights, one horizontal pass per source
+ * row and one vertical pass per output row. Other image types, and upscaling, fall back
+ * to Graphics2D bilinear drawing. Not thread-safe: each encoder owns one.
+ */
+final class Downscaler {
+
+    /** Weights along each axis sum to 1 &lt;&lt; WEIGHT_BITS. */
+    private static final int WEIGHT_BITS = 8;
+
+    private BufferedImage target;
+    private int[] targetPixels;
+    private Axis xAxis;
+    private Axis yAxis;
+    private int[][] filteredRows;
+    private final int[] filteredIndex = new int[2];
+    private int[] accRB = new int[0];
+    private int[] accG = new int[0];
+    private int srcOffset;
+    private int srcStride;
+
+    /** Scales the whole image to {@code width} x {@code height}. */
+    BufferedImage scale(BufferedImage src, int width, int height) {
+        return scale(src, width, height, 0, height);
+    }
+
+    /**
+     * Scales the image to {@code width} x {@code height} but only produces output
+     * rows [y, y + rows), as a {@code width} x {@code rows} image. The rows match
+     * the same rows of a full scale, so strips scaled separately join seamlessly.
+     */
+    BufferedImage scale(BufferedImage src, int width, int height, int y, int rows) {
+        if (target == null || target.getWidth() != width || target.getHeight() != rows) {
+            target = new BufferedImage(width, rows, BufferedImage.TYPE_INT_RGB);
+            targetPixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        }
+        int[] pixels = intPixels(src);
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        if (pixels == null || width > srcWidth || height > srcHeight) {
+            draw(src, width, height, y, rows);
+        } else if (srcWidth == width * 2 && srcHeight == height * 2) {
+            box2(pixels, width, y, rows);
+        } else if (srcWidth == width * 4 && srcHeight == height * 4) {
+            box4(pixels, width, y, rows);
+        } else {
+            area(pixels, srcWidth, srcHeight, width, height, y, rows);
+        }
+        return target;
+    }
+
+    /** The pixel array of a packed TYPE_INT_RGB image, with its offset and stride; null for anything else. */
+    private int[] intPixels(BufferedImage src) {
+        if (src.getType() != BufferedImage.TYPE_INT_RGB) return null;
+        WritableRaster raster = src.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return null;
+        }
+        srcStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        // Non-zero for subimages, which share the parent's array
+        srcOffset = raster.getDataBuffer().getOffset()
+                - raster.getSampleModelTranslateY() * srcStride - raster.getSampleModelTranslateX();
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
+    /** Averages 2x2 blocks, summing red and blue together in one int (they cannot carry into each other). */
+    private void box2(int[] src, int width, int y, int rows) {
+        for (int dy = 0; dy < rows; dy++) {
+            int p0 = srcOffset + (y + dy) * 2 * srcStride;
+            int p1 = p0 + srcStride;
+            int out = dy * width;
+            for (int dx = 0; dx < width; dx++, p0 += 2, p1 += 2) {
+                int a = src[p0];
+                int b = src[p0 + 1];
+                int c = src[p1];
+                int d = src[p1 + 1];
+                int rb = (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF) + (d & 0xFF00FF) + 0x020002;
+                int g = (a & 0x00FF00) + (b & 0x00FF00) + (c & 0x00FF00) + (d & 0x00FF00) + 0x000200;
+                targetPixels[out + dx] = (rb >>> 2) & 0xFF00FF | (g >>> 2) & 0x00FF00;
+            }
+        }
+    }
+
+    /** Averages 4x4 blocks the same way; 16 samples still fit in red's and blue's 16 bits each. */
+    private void box4(int[] src, int width, int y, int rows) {
+        for (int dy = 0; dy < rows; dy++) {
+            int rowStart = srcOffset + (y + dy) * 4 * srcStride;
+            int out = dy * width;
+            for (int dx = 0; dx < width; dx++) {
+                int rb = 0x080008;
+                int g = 0x000800;
+                for (int p = rowStart + dx * 4, j = 0; j < 4; j++, p += srcStride) {
+                    int a = src[p];
+                    int b = src[p + 1];
+                    int c = src[p + 2];
+                    int d = src[p + 3];
+                    rb += (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF) + (d & 0xFF00FF);
+                    g += (a & 0x00FF00) + (b & 0x00FF00) + (c & 0x00FF00) + (d & 0x00FF00);
+                }
+                targetPixels[out + dx] = (rb >>> 4) & 0xFF00FF | (g >>> 4) & 0x00FF00;
+            }
+        }
+    }
+
+    /**
+     * Area averaging. Both passes multiply red and blue together in one int: with
+     * weights summing to 256, each weighted sum stays within its 16 bits.
+     */
+    private void area(int[] src, int srcWidth, int srcHeight, int width, int height, int y, int rows) {
+        if (xAxis == null || !xAxis.matches(srcWidth, width)) xAxis = new Axis(srcWidth, width);
+        if (yAxis == null || !yAxis.matches(srcHeight, height)) yAxis = new Axis(srcHeight, height);
+        if (accRB.length < width) {
+            filteredRows = new int[][] {new int[width], new int[width]};
+            accRB = new int[width];
+            accG = new int[width];
+        }
+        filteredIndex[0] = -1;
+        filteredIndex[1] = -1;
+        int taps = yAxis.taps;
+        for (int dy = y; dy < y + rows; dy++) {
+            int first = yAxis.first[dy];
+            int out = (dy - y) * width;
+            if (taps == 2) {
+                // Most ratios above 1/2: blend two filtered rows straight into the output
+                int[] a = filteredRow(src, first, width);
+                int[] b = filteredRow(src, first + 1, width);
+                int wa = yAxis.weights[dy * 2];
+                int wb = yAxis.weights[dy * 2 + 1];
+                for (int x = 0; x < width; x++) {
+                    int c = a[x];
+                    int d = b[x];
+                    int rb = 0x800080 + wa * (c & 0xFF00FF) + wb * (d & 0xFF00FF);
+                    int g = 0x008000 + wa * (c & 0x00FF00) + wb * (d & 0x00FF00);
+                    targetPixels[out + x] = (rb >>> 8) & 0xFF00FF | (g >>> 8) & 0x00FF00;
+                }
+                continue;
+            }
+            Arrays.fill(accRB, 0, width, 0x800080);
+            Arrays.fill(accG, 0, width, 0x008000);
+            for (int j = 0; j < taps; j++) {
+                int w = yAxis.weights[dy * taps + j];
+                if (w == 0) continue;
+                int[] filtered = filteredRow(src, first + j, width);
+                for (int x = 0; x < width; x++) {
+                    int c = filtered[x];
+                    accRB[x] += w * (c & 0xFF00FF);
+                    accG[x] += w * (c & 0x00FF00);
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                targetPixels[out + x] = (accRB[x] >>> 8) & 0xFF00FF | (accG[x] >>> 8) & 0x00FF00;
+            }
+        }
+    }
+
+    /**
+     * Source row {@code sy} after the horizontal pass. The last two are kept, so
+     * a row shared by two output rows is filtered once.
+     */
+    private int[] filteredRow(int[] src, int sy, int width) {
+        if (filteredIndex[0] == sy) return filteredRows[0];
+        if (filteredIndex[1] == sy) return filteredRows[1];
+        // Rows are asked for in ascending order, so the lower one is no longer needed
+        int slot = filteredIndex[0] < filteredIndex[1] ? 0 : 1;
+        filterRow(src, sy, width, filteredRows[slot]);
+        filteredIndex[slot] = sy;
+        return filteredRows[slot];
+    }
+
+    /** Horizontal pass over one source row, rounded back to 8 bits per channel. */
+    private void filterRow(int[] src, int sy, int width, int[] row) {
+        int rowStart = srcOffset + sy * srcStride;
+        int[] first = xAxis.first;
+        int[] weights = xAxis.weights;
+        int taps = xAxis.taps;
+        if (taps == 2) {
+            for (int x = 0; x < width; x++) {
+                int p = rowStart + first[x];
+                int c = src[p];
+                int d = src[p + 1];
+                int wa = weights[x * 2];
+                int wb = weights[x * 2 + 1];
+                int rb = 0x800080 + wa * (c & 0xFF00FF) + wb * (d & 0xFF00FF);
+                int g = 0x008000 + wa * (c & 0x00FF00) + wb * (d & 0x00FF00);
+                row[x] = (rb >>> 8) & 0xFF00FF | (g >>> 8) & 0x00FF00;
+            }
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            int p = rowStart + first[x];
+            int rb = 0x800080;
+            int g = 0x008000;
+            for (int i = 0, weightAt = x * taps; i < taps; i++) {
+                int c = src[p + i];
+                int w = weights[weightAt + i];
+                rb += w * (c & 0xFF00FF);
+                g += w * (c & 0x00FF00);
+            }
+            row[x] = (rb >>> 8) & 0xFF00FF | (g >>> 8) & 0x00FF00;
+        }
+    }
+
+    private void draw(BufferedImage src, int width, int height, int y, int rows) {
+        Graphics2D g = target.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        if (y == 0 && rows == height) {
+            g.drawImage(src, 0, 0, width, height, null);
+        } else {
+            // Source rows that map onto these output rows; bilinear filtering stays within them
+            double rowsPerRow = (double) src.getHeight() / height;
+            int sy0 = (int) Math.round(y * rowsPerRow);
+            int sy1 = (int) Math.round((y + rows) * rowsPerRow);
+            g.drawImage(src, 0, 0, width, rows, 0, sy0, src.getWidth(), sy1, null);
+        }
+        g.dispose();
+    }
+
+    /**
+     * Area-averaging weights along one axis: output pixel i is the weighted sum of
+     * source pixels [first[i], first[i] + taps), weighted by how much of each it
+     * overlaps. Every output has the same number of taps, padded with zero weights,
+     * so the passes can loop a fixed number of times.
+     */
+    private static final class Axis {
+
+        final int srcSize;
+        final int dstSize;
+        final int taps;
+        final int[] first;
+        final int[] weights;
+
+        Axis(int srcSize, int dstSize) {
+            this.srcSize = srcSize;
+            this.dstSize = dstSize;
+            double ratio = (double) srcSize / dstSize;
+            int most = 1;
+            for (int i = 0; i < dstSize; i++) {
+                int[] range = covered(i, ratio, srcSize);
+                most = Math.max(most, range[1] - range[0]);
+            }
+            taps = Math.min(most, srcSize);
+            first = new int[dstSize];
+            weights = new int[dstSize * taps];
+            int one = 1 << WEIGHT_BITS;
+            for (int i = 0; i < dstSize; i++) {
+                int[] range = covered(i, ratio, srcSize);
+                double start = i * ratio;
+                double end = Math.min(srcSize, (i + 1) * ratio);
+                // Near the far edge the window starts early and its leading taps get no weight
+                first[i] = Math.min(range[0], srcSize - taps);
+                int base = i * taps - first[i];
+                int sum = 0;
+                int largest = base + range[0];
+                for (int s = range[0]; s < range[1]; s++) {
+                    double overlap = Math.min(end, s + 1) - Math.max(start, s);
+                    int w = (int) Math.round(overlap / ratio * one);
+                    weights[base + s] = w;
+                    sum += w;
+                    if (w > weights[largest]) largest = base + s;
+                }
+                // Rounding error goes to the largest weight so every output pixel sums to exactly one
+                weights[largest] += one - sum;
+            }
+        }
+
+        /** Source pixels [from, to) that output pixel i overlaps. */
+        private static int[] covered(int i, double ratio, int srcSize) {
+            // The tolerance keeps rounding error from adding an extra pixel of no weight
+            double end = Math.min(srcSize, (i + 1) * ratio);
+            return new int[] {(int) (i * ratio + 1e-9), Math.min(srcSize, (int) Math.ceil(end - 1e-9))};
+        }
+
+        boolean matches(int srcSize, int dstSize) {
+            return this.srcSize == srcSize && this.dstSize == dstSize;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.granolaa.app;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One encoded record in a pooled buffer: the payload is {@code data[0 .. length)}.
+ * Senders write it straight from this buffer behind the length prefix and
+ * timing header (see {@link FrameHeader#writeRecord}), so it is never copied.
+ * Frames are reference counted and go back to their pool when the last holder
+ * releases them.
+ */
+final class EncodedFrame {
+
+    byte[] data;
+    int length;
+    /** Position in its stream, assigned when the frame is published. */
+    long sequence;
+    /** System.nanoTime() when the frame was published, for measuring how long it waited. */
+    long publishedNanos;
+    /** Wall-clock time the image was grabbed, in ms since the epoch; 0 if unknown. */
+    long capturedAtMillis;
+    /** Time from grab to publish spent scaling and encoding, in microseconds. */
+    int encodeMicros;
+
+    private final FramePool pool;
+    private final AtomicInteger refs = new AtomicInteger();
+
+    EncodedFrame(FramePool pool, int capacity) {
+        this.pool = pool;
+        this.data = new byte[capacity];
+    }
+
+    private EncodedFrame(byte[] data, int length) {
+        this.pool = null;
+        this.data = data;
+        this.length = length;
+    }
+
+    /** Wraps a fixed payload; used for placeholder frames that are never recycled. */
+    static EncodedFrame wrap(byte[] payload) {
+        EncodedFrame frame = new EncodedFrame((FramePool) null, payload.length);
+        System.arraycopy(payload, 0, frame.data, 0, payload.length);
+        frame.setLength(payload.length);
+        return frame;
+    }
+
+    /**
+     * Returns an unpooled frame over the same buffer, so one finished record can be
+     * published many times (each publish stamps its own sequence number).
+     */
+    EncodedFrame share() {
+        return new EncodedFrame(data, length);
+    }
+
+    /** Sets the payload length. */
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    /** Grows the buffer, keeping its contents, so it can hold a payload of the given size. */
+    void ensureCapacity(int payloadSize) {
+        if (payloadSize > data.length) {
+            data = Arrays.copyOf(data, Math.max(payloadSize, data.length * 2));
+        }
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    EncodedFrame retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+
+    void release() {
+        if (pool != null && refs.decrementAndGet() == 0) {
+            pool.recycle(this);
+        }
+    }
+
+    /** Called by the pool when the frame is handed out again. */
+    void reset() {
+        length = 0;
+        sequence = 0;
+        refs.set(1);
+    }
+}
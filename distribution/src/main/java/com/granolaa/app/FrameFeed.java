@@ -0,0 +1,14 @@
+package com.granolaa.app;
+
+/**
+ * Blocking source of frames a sender has not sent yet.
+ */
+interface FrameFeed {
+
+    /**
+     * Waits for the next frame to send; the caller must release it. Returns null
+     * if there was nothing new to send for a while, so the caller can check
+     * whether it should keep running.
+     */
+    EncodedFrame next() throws InterruptedException;
+}
@@ -0,0 +1,114 @@
+package com.granolaa.app;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+
+/**
+ * Header in front of a record that tells the relay and viewers how old
+ * it is. A timed record is
+ * <pre>
+ *   u8  {@link #RECORD_TIMED}
+ *   u8  version ({@value #VERSION})
+ *   u16 header size in bytes, including these four
+ *   u32 sequence number in its stream
+ *   u64 capture time, ms since the epoch (sender's clock)
+ *   u32 encode duration, microseconds
+ *   ... the record itself (JPEG, tiles or video)
+ * </pre>
+ * The length prefix still covers the whole record, so a relay that only splits
+ * records passes it on unharmed; readers skip the header by its size, so later
+ * versions can append fields. Anything that reads the payload must know the
+ * header, though: relays and viewers from before it take every record that does
+ * not start with a tile or video type for a JPEG, and show timed records as
+ * broken images. The relay and viewer in this repository know it, so live
+ * streams carry it unless -Dframe.header=false, for older relays. Catch-up
+ * uploads always carry it (the endpoint that takes them came with it and needs
+ * the capture time), and placeholder frames, which have no capture time, never do.
+ */
+final class FrameHeader {
+
+    static final int RECORD_TIMED = 0x03;
+    static final int VERSION = 1;
+    static final int SIZE = 20;
+
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("frame.header", "true"));
+
+    private FrameHeader() {
+    }
+
+    /** True if live records carry the header: unless -Dframe.header=false. */
+    static boolean enabled() {
+        return ENABLED;
+    }
+
+    /** Header bytes sent in front of a live frame: {@link #SIZE}, or 0 if it goes out bare. */
+    static int size(EncodedFrame frame) {
+        return size(frame, ENABLED);
+    }
+
+    /** Header bytes in front of the frame if {@code timed}: 0 anyway for frames without a capture time. */
+    static int size(EncodedFrame frame, boolean timed) {
+        return timed && frame.capturedAtMillis != 0 ? SIZE : 0;
+    }
+
+    /** Bytes a live frame takes on the wire: length prefix, header and payload. */
+    static int wireLength(EncodedFrame frame) {
+        return Integer.BYTES + size(frame) + frame.length;
+    }
+
+    /** Writes a live frame's header, if it has one. */
+    static void write(BufferedSink sink, EncodedFrame frame) throws IOException {
+        write(sink, frame, ENABLED);
+    }
+
+    private static void write(BufferedSink sink, EncodedFrame frame, boolean timed) throws IOException {
+        if (size(frame, timed) == 0) return;
+        sink.writeByte(RECORD_TIMED);
+        sink.writeByte(VERSION);
+        sink.writeShort(SIZE);
+        sink.writeInt((int) frame.sequence);
+        sink.writeLong(frame.capturedAtMillis);
+        sink.writeInt(frame.encodeMicros);
+    }
+
+    /** Writes a live frame's whole record: length prefix, header and payload straight from the frame's buffer. */
+    static void writeRecord(BufferedSink sink, EncodedFrame frame) throws IOException {
+        writeRecord(sink, frame, ENABLED);
+    }
+
+    /** Like {@link #writeRecord(BufferedSink, EncodedFrame)}, with the header if {@code timed}. */
+    static void writeRecord(BufferedSink sink, EncodedFrame frame, boolean timed) throws IOException {
+        sink.writeInt(size(frame, timed) + frame.length);
+        write(sink, frame, timed);
+        sink.write(frame.data, 0, frame.length);
+    }
+
+    /** A POST body holding just this live frame's record. */
+    static RequestBody requestBody(EncodedFrame frame) {
+        return requestBody(frame, ENABLED);
+    }
+
+    /** A POST body holding just this record, with the header if {@code timed}. */
+    static RequestBody requestBody(EncodedFrame frame, boolean timed) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return OCTET_STREAM;
+            }
+
+            @Override
+            public long contentLength() {
+                return Integer.BYTES + size(frame, timed) + frame.length;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                writeRecord(sink, frame, timed);
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package com.granolaa.app;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+
+/**
+ * ImageOutputStream that writes straight into an {@link EncodedFrame}'s buffer.
+ * One instance is reused for every frame of a stream,
+ * so ImageIO never needs a fresh stream or cache per frame. Everything stays in
+ * memory, so flushing is a no-op and writers may seek back to patch lengths.
+ */
+final class FrameOutputStream extends ImageOutputStreamImpl {
+
+    private EncodedFrame frame;
+    private int count;
+
+    /** Starts writing a new payload into the given frame. */
+    void reset(EncodedFrame target) {
+        frame = target;
+        count = 0;
+        streamPos = 0;
+        flushedPos = 0;
+        bitOffset = 0;
+    }
+
+    /** Number of payload bytes written so far. */
+    int size() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) {
+        flushBitsQuietly();
+        frame.ensureCapacity((int) streamPos + 1);
+        frame.data[(int) streamPos] = (byte) b;
+        advance(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        flushBitsQuietly();
+        frame.ensureCapacity((int) streamPos + len);
+        System.arraycopy(b, off, frame.data, (int) streamPos, len);
+        advance(len);
+    }
+
+    @Override
+    public int read() {
+        bitOffset = 0;
+        if (streamPos >= count) return -1;
+        return frame.data[(int) streamPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        bitOffset = 0;
+        int available = count - (int) streamPos;
+        if (available <= 0) return -1;
+        int n = Math.min(len, available);
+        System.arraycopy(frame.data, (int) streamPos, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return count;
+    }
+
+    @Override
+    public void flushBefore(long pos) {
+        // Nothing to flush: keep flushedPos at 0 so earlier bytes stay seekable.
+    }
+
+    private void advance(int n) {
+        streamPos += n;
+        if (streamPos > count) count = (int) streamPos;
+    }
+
+    private void flushBitsQuietly() {
+        if (bitOffset != 0) {
+            try {
+                flushBits();
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // cannot happen for an in-memory stream
+            }
+        }
+    }
+}
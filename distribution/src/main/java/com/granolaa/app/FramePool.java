@@ -0,0 +1,27 @@
+package com.granolaa.app;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Recycles {@link EncodedFrame} buffers for one stream. Buffers keep whatever
+ * size they grew to, so after a few frames encoding stops allocating.
+ */
+final class FramePool {
+
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final int MAX_IDLE = 4;
+
+    private final ArrayBlockingQueue<EncodedFrame> idle = new ArrayBlockingQueue<>(MAX_IDLE);
+
+    /** Returns a frame with a reference count of one. */
+    EncodedFrame acquire() {
+        EncodedFrame frame = idle.poll();
+        if (frame == null) frame = new EncodedFrame(this, DEFAULT_CAPACITY);
+        frame.reset();
+        return frame;
+    }
+
+    void recycle(EncodedFrame frame) {
+        idle.offer(frame); // dropped if the pool is already full
+    }
+}
@@ -0,0 +1,47 @@
+package com.granolaa.app;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Saves grabbed images as numbered PNGs plus an {@value #INDEX} file with one
+ * {@code <offset ms> <file>} line per frame, which {@link ReplaySource} plays
+ * back with the same timing. PNG writing is slow, so recording lowers the
+ * capture rate; use it to make test material, not while measuring.
+ */
+final class FrameRecorder {
+
+    static final String INDEX = "index.txt";
+
+    private final Path dir;
+    private final Writer index;
+    private final long start = System.currentTimeMillis();
+    private int count;
+
+    FrameRecorder(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.index = Files.newBufferedWriter(dir.resolve(INDEX), StandardCharsets.UTF_8);
+    }
+
+    void record(BufferedImage image) throws IOException {
+        long offset = System.currentTimeMillis() - start;
+        String file = String.format("%06d.png", count++);
+        ImageIO.write(image, "png", dir.resolve(file).toFile());
+        index.write(offset + " " + file + "\n");
+        index.flush(); // keep the index usable if the app is killed
+    }
+
+    void close() {
+        try {
+            index.close();
+        } catch (IOException e) {
+            System.err.println("Frame recorder close failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.granolaa.app;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the latest encoded frame of a capture source. Publishing stamps the
+ * frame with the next sequence number, replaces (and releases) the previous
+ * frame and wakes any sender waiting for it, so senders never poll and never
+ * see the same frame twice. Waits use a lock and condition rather than a
+ * monitor, so a sender on a virtual thread unmounts while it waits instead of
+ * pinning its carrier thread (JDK 21 to 23).
+ */
+final class FrameSlot {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private EncodedFrame frame;
+    private long sequence;
+    private Runnable onPublish;
+    private long capturedAtMillis;
+    private long encodeStartNanos;
+    private FrameSpool spool;
+
+    /** Runs the callback after every publish, for senders that wait on several slots at once. */
+    void onPublish(Runnable callback) {
+        lock.lock();
+        try {
+            this.onPublish = callback;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Copies every frame into the spool once it is stamped; null stops spooling. */
+    void spoolTo(FrameSpool spool) {
+        lock.lock();
+        try {
+            this.spool = spool;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells the slot that an image grabbed at {@code capturedAtMillis} is being
+     * encoded from {@code encodeStartNanos} on; the records published for it are
+     * stamped with both (see {@link FrameHeader}).
+     */
+    void capturing(long capturedAtMillis, long encodeStartNanos) {
+        lock.lock();
+        try {
+            this.capturedAtMillis = capturedAtMillis;
+            this.encodeStartNanos = encodeStartNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stores the frame, taking over the caller's reference. */
+    void publish(EncodedFrame next) {
+        EncodedFrame previous;
+        Runnable callback;
+        lock.lock();
+        try {
+            previous = frame;
+            next.sequence = ++sequence;
+            next.publishedNanos = System.nanoTime();
+            if (encodeStartNanos != 0) {
+                next.capturedAtMillis = capturedAtMillis;
+                next.encodeMicros = (int) ((next.publishedNanos - encodeStartNanos) / 1000);
+            } else {
+                next.capturedAtMillis = System.currentTimeMillis(); // prebuilt records: sent as if just captured
+            }
+            if (spool != null) spool.append(next);
+            frame = next;
+            changed.signalAll();
+            callback = onPublish;
+        } finally {
+            lock.unlock();
+        }
+        if (previous != null) previous.release();
+        if (callback != null) callback.run();
+    }
+
+    /** Returns the latest frame with an extra reference the caller must release, or null. */
+    EncodedFrame acquire() {
+        lock.lock();
+        try {
+            return frame != null ? frame.retain() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a frame newer than {@code afterSequence} is published and returns
+     * it with an extra reference, or null if none arrives within the timeout.
+     */
+    EncodedFrame awaitNewer(long afterSequence, long timeoutMs) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            while (frame == null || frame.sequence <= afterSequence) {
+                if (remaining <= 0) return null;
+                remaining = changed.awaitNanos(remaining);
+            }
+            return frame.retain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a frame and removes it from the slot; the caller owns its reference.
+     * Returns null if nothing is published within the timeout.
+     */
+    EncodedFrame awaitTake(long timeoutMs) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            while (frame == null) {
+                if (remaining <= 0) return null;
+                remaining = changed.awaitNanos(remaining);
+            }
+            EncodedFrame taken = frame;
+            frame = null;
+            return taken;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Number of frames published so far. */
+    long published() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return frame == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.granolaa.app;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * One stream of frames for {@link StreamClient}. Runs the capture loop: grabs an
+ * image at the stream's fps, encodes it (plain JPEG, tile deltas or H.264) and
+ * holds the latest record for the sender. Subclasses only open, grab and close;
+ * see {@link ScreenCapture}, {@link WebcamCapture}, {@link SyntheticSource} and
+ * {@link ReplaySource}.
+ * <p>
+ * In delta mode only the tiles that changed since the sender's last pickup are
+ * encoded (see {@link TileEncoder}), with a full JPEG keyframe every couple of
+ * seconds so new viewers can start drawing.
+ * <p>
+ * Frames that hardly differ from the last encoded one are not encoded at all
+ * (see {@link ChangeDetector}), except for a keep-alive frame every couple of
+ * seconds, so an idle screen or an empty room costs next to nothing.
+ * <p>
+ * Sources whose frames already sit in native memory (cameras) can hand them over
+ * as OpenCV Mats instead, see {@link #grabMat()}; plain JPEG streams then scale
+ * and encode them in OpenCV without a copy into a Java image.
+ */
+public abstract class FrameSource implements Runnable {
+
+    private static final long KEYFRAME_INTERVAL_MS = 2000;
+    private static final int SYNTHETIC_WIDTH = 1280;
+    private static final int SYNTHETIC_HEIGHT = 720;
+
+    private final FrameSlot latestFrame = new FrameSlot();
+    private final StreamMetrics metrics;
+    private volatile boolean running = true;
+    private final String name;
+    private final StreamSettings settings;
+    private final boolean delta;
+    private final boolean video;
+    private final TileEncoder tiles = new TileEncoder();
+    private long lastKeyframe;
+    private boolean lastWasKeyframe;
+    private Path recordDir;
+    private boolean parallel;
+    private ChangeDetector changes;
+    private FrameSpool spool;
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    /** The codec is read from the settings here; delta mode does not apply to video. */
+    protected FrameSource(String name, StreamSettings settings, boolean delta) {
+        this.name = name;
+        this.settings = settings;
+        this.metrics = new StreamMetrics(name, latestFrame::published);
+        this.video = settings.getCodec() == StreamSettings.Codec.H264;
+        this.delta = delta && !video;
+        this.changes = ChangeDetector.fromProperties(name);
+    }
+
+    /**
+     * Picks the source for a stream from -D&lt;name&gt;.source: {@code static},
+     * {@code scrolling} or {@code noise} for a synthetic 1280x720 source,
+     * {@code replay:<dir>} for a recording, or the real device when unset.
+     * -D&lt;name&gt;.record=&lt;dir&gt; records what the source grabs, for later replay,
+     * and -D&lt;name&gt;.parallel=true turns on {@link #setParallelEncoding parallel encoding}.
+     * Every source also reads its change detection settings, see
+     * {@link ChangeDetector#fromProperties}, and is spooled when -Dspool.dir is set
+     * (see {@link FrameSpool#fromProperties}).
+     */
+    public static FrameSource fromProperties(String name, StreamSettings settings, boolean delta,
+                                             Supplier<FrameSource> device) {
+        String spec = System.getProperty(name + ".source", "").trim();
+        FrameSource source;
+        if (spec.isEmpty() || spec.equalsIgnoreCase("device")) {
+            source = device.get();
+        } else if (spec.startsWith("replay:")) {
+            source = new ReplaySource(name, settings, delta, Paths.get(spec.substring("replay:".length())));
+        } else {
+            SyntheticSource.Pattern pattern = SyntheticSource.pattern(spec);
+            if (pattern == null) {
+                throw new IllegalArgumentException("-D" + name + ".source must be static, scrolling, noise, "
+                        + "replay:<dir> or device: " + spec);
+            }
+            source = new SyntheticSource(name, settings, delta, pattern, SYNTHETIC_WIDTH, SYNTHETIC_HEIGHT, 1);
+        }
+        String record = System.getProperty(name + ".record");
+        if (record != null && !record.isEmpty()) source.recordTo(Paths.get(record));
+        source.setParallelEncoding(Boolean.getBoolean(name + ".parallel"));
+        if (!source.isIncremental()) source.spoolTo(FrameSpool.fromProperties(name));
+        return source;
+    }
+
+    /** Prepares the device. Returning false ends the stream, after the subclass has said why. */
+    protected boolean open() throws Exception {
+        return true;
+    }
+
+    /** Returns the next image, or null if there is none this tick. Called on the capture thread only. */
+    protected abstract BufferedImage grab() throws Exception;
+
+    /**
+     * True if this source can return frames from {@link #grabMat()}. Asked once,
+     * after {@link #open()}; the loop then uses grabMat() for plain JPEG streams
+     * that are not being recorded, and {@link #grab()} otherwise.
+     */
+    protected boolean grabsMats() {
+        return false;
+    }
+
+    /**
+     * Returns the next frame as an 8-bit, 3-channel BGR Mat, or null if there is
+     * none this tick; sources that do not grab Mats always return null. The Mat
+     * belongs to the source and only has to stay valid until the next grab.
+     * Called on the capture thread only.
+     */
+    protected Mat grabMat() throws Exception {
+        return null;
+    }
+
+    /** Releases the device; called once the loop ends, even if {@link #open()} failed. */
+    protected void close() {
+    }
+
+    /** False if this source cannot work on this system; the client then skips the stream. */
+    public boolean isAvailable() {
+        return true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public StreamSettings getSettings() {
+        return settings;
+    }
+
+    /** Stage timings and counters; the sender adds queue, send and drop figures. */
+    StreamMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Scales and encodes full JPEG frames as strips on all cores (see
+     * {@link ParallelJpegEncoder}), for screens too large for one thread to keep
+     * up with. Applies to plain JPEG streams, not to delta or video mode; call
+     * before starting.
+     */
+    public void setParallelEncoding(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Replaces the change detector read from the properties; null encodes every
+     * frame. Call before starting.
+     */
+    void setChangeDetector(ChangeDetector changes) {
+        this.changes = changes;
+    }
+
+    /** Saves every grabbed image to the directory for {@link ReplaySource}; call before starting. */
+    public void recordTo(Path dir) {
+        this.recordDir = dir;
+    }
+
+    /**
+     * Keeps every published frame in the spool as well, for catch-up after an
+     * outage; null turns spooling off. Incremental streams cannot be spooled, as
+     * catch-up sends only some of their records. Call before starting.
+     */
+    void spoolTo(FrameSpool spool) {
+        if (spool != null && isIncremental()) throw new IllegalStateException(name + " is incremental");
+        this.spool = spool;
+        latestFrame.spoolTo(spool);
+    }
+
+    /** The spool set with {@link #spoolTo}, or null. */
+    FrameSpool getSpool() {
+        return spool;
+    }
+
+    /** Returns a copy of the latest JPEG frame, or an empty array before the first capture. */
+    public byte[] getLatestFrame() {
+        EncodedFrame frame = latestFrame.acquire();
+        if (frame == null) return new byte[0];
+        try {
+            return frame.toByteArray();
+        } finally {
+            frame.release();
+        }
+    }
+
+    /** True if records build on earlier ones (tile deltas or video), so none may be sent twice. */
+    boolean isIncremental() {
+        return delta || video;
+    }
+
+    /**
+     * Waits for a frame newer than {@code afterSequence} and returns it for sending;
+     * the caller must release it. Incremental records are handed over instead, so
+     * the next call waits for the next record. Returns null on timeout.
+     */
+    EncodedFrame awaitFrame(long afterSequence, long timeoutMs) throws InterruptedException {
+        return isIncremental() ? latestFrame.awaitTake(timeoutMs) : latestFrame.awaitNewer(afterSequence, timeoutMs);
+    }
+
+    /** True if {@link #awaitFrame} would return a frame right away. */
+    boolean hasFrameAfter(long afterSequence) {
+        return isIncremental() ? !latestFrame.isEmpty() : latestFrame.published() > afterSequence;
+    }
+
+    /** Runs the callback whenever a record is published, on the capture thread. */
+    void onPublish(Runnable callback) {
+        latestFrame.onPublish(callback);
+    }
+
+    /**
+     * Waits until the source has published its first frame, or has given up
+     * (unavailable, failed to open or stopped). Returns false on timeout.
+     */
+    public boolean awaitReady(long timeoutMs) throws InterruptedException {
+        return ready.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    protected boolean isRunning() {
+        return running;
+    }
+
+    /** Publishes a finished record as the latest frame, for sources that do not encode images. */
+    void publishRecord(EncodedFrame frame) {
+        latestFrame.publish(frame);
+        ready.countDown();
+    }
+
+    @Override
+    public void run() {
+        if (!isAvailable()) {
+            ready.countDown();
+            return;
+        }
+        JpegEncoder encoder = new JpegEncoder();
+        VideoEncoder videoEncoder = video ? new VideoEncoder() : null;
+        ParallelJpegEncoder stripEncoder = parallel && !video && !delta ? new ParallelJpegEncoder() : null;
+        FrameRecorder recorder = null;
+        NativeJpegEncoder matEncoder = null;
+        try {
+            if (!open()) return;
+            if (recordDir != null) recorder = new FrameRecorder(recordDir);
+            if (!video && !delta && stripEncoder == null && recorder == null && grabsMats()) {
+                matEncoder = new NativeJpegEncoder();
+            }
+
+            while (running) {
+                long start = System.currentTimeMillis();
+                long intervalMs = settings.frameIntervalMs();
+                encoder.setQuality(settings.getQuality());
+                long grabStart = System.nanoTime();
+                BufferedImage image = null;
+                if (matEncoder != null) {
+                    captureMat(matEncoder, start, grabStart);
+                } else {
+                    image = grab();
+                }
+                if (image != null) {
+                    long grabEnd = System.nanoTime();
+                    metrics.record(StreamMetrics.Stage.GRAB, grabEnd - grabStart);
+                    latestFrame.capturing(start, grabEnd);
+                    if (recorder != null) recorder.record(image);
+                    if (changes != null && !changes.shouldEncode(image, start)) {
+                        metrics.unchanged();
+                    } else if (stripEncoder != null) {
+                        // Scaling happens inside the strip tasks, so it is counted as encoding
+                        long encodeStart = System.nanoTime();
+                        latestFrame.publish(stripEncoder.encode(image, settings.getScale(), settings.getQuality()));
+                        metrics.record(StreamMetrics.Stage.ENCODE, System.nanoTime() - encodeStart);
+                    } else {
+                        publish(image, encoder, videoEncoder, start, changes != null && changes.wasKeepAlive());
+                    }
+                }
+                if (latestFrame.published() > 0) ready.countDown();
+
+                long elapsed = System.currentTimeMillis() - start;
+                long sleep = Math.max(0, intervalMs - elapsed);
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("[" + name + "] capture error: " + e.getMessage());
+        } finally {
+            encoder.dispose();
+            if (matEncoder != null) matEncoder.dispose();
+            if (videoEncoder != null) videoEncoder.dispose();
+            if (stripEncoder != null) stripEncoder.dispose();
+            if (recorder != null) recorder.close();
+            close();
+            ready.countDown();
+        }
+    }
+
+    /** One tick of the Mat path: grab, check for changes, then scale and encode in OpenCV. */
+    private void captureMat(NativeJpegEncoder matEncoder, long start, long grabStart) throws Exception {
+        Mat mat = grabMat();
+        if (mat == null) return;
+        long grabEnd = System.nanoTime();
+        metrics.record(StreamMetrics.Stage.GRAB, grabEnd - grabStart);
+        latestFrame.capturing(start, grabEnd);
+        if (changes != null) {
+            ByteBuffer pixels = mat.createBuffer();
+            if (!changes.shouldEncode(pixels, mat.cols(), mat.rows(), (int) mat.step(), start)) {
+                metrics.unchanged();
+                return;
+            }
+        }
+        // Scaling happens inside the encoder, so it is counted as encoding
+        long encodeStart = System.nanoTime();
+        latestFrame.publish(matEncoder.encode(mat, settings.getScale(), settings.getQuality()));
+        metrics.record(StreamMetrics.Stage.ENCODE, System.nanoTime() - encodeStart);
+    }
+
+    /**
+     * Encodes at the configured scale and publishes; full-size frames skip the
+     * scaling pass if they can. A keep-alive is sent as a keyframe in delta mode,
+     * where an unchanged frame would otherwise produce no record at all.
+     */
+    private void publish(BufferedImage image, JpegEncoder encoder, VideoEncoder videoEncoder, long now,
+                         boolean keepAlive) throws IOException {
+        double scale = settings.getScale();
+        // Tile comparison needs TYPE_INT_RGB, which scaling always produces
+        boolean convert = scale < 1.0 || (delta && image.getType() != BufferedImage.TYPE_INT_RGB);
+        long scaleStart = System.nanoTime();
+        BufferedImage scaled = convert ? encoder.scale(image, scale) : image;
+        long encodeStart = System.nanoTime();
+        if (convert) metrics.record(StreamMetrics.Stage.SCALE, encodeStart - scaleStart);
+
+        if (videoEncoder != null) {
+            videoEncoder.encodeInto(latestFrame, scaled, settings);
+        } else if (delta) {
+            publishDelta(scaled, encoder, now, keepAlive);
+        } else {
+            latestFrame.publish(encoder.encode(scaled));
+        }
+        metrics.record(StreamMetrics.Stage.ENCODE, System.nanoTime() - encodeStart);
+    }
+
+    /**
+     * Publishes a tile record with every tile changed since the sender last picked
+     * a record up, or a full keyframe when one is due. A record the sender has not
+     * taken yet is replaced by a superset of it, so skipped records lose nothing.
+     */
+    private void publishDelta(BufferedImage scaled, JpegEncoder encoder, long now, boolean keepAlive)
+            throws IOException {
+        boolean consumed = latestFrame.isEmpty();
+        if (consumed) tiles.clear();
+        boolean comparable = tiles.update(scaled);
+
+        boolean keyframe = !comparable || keepAlive
+                || now - lastKeyframe >= KEYFRAME_INTERVAL_MS
+                || tiles.dirtyCount() * 2 > tiles.tileCount()
+                || (!consumed && lastWasKeyframe && tiles.dirtyCount() > 0);
+        if (keyframe) {
+            latestFrame.publish(encoder.encode(scaled));
+            tiles.clear();
+            lastKeyframe = now;
+            lastWasKeyframe = true;
+        } else if (tiles.dirtyCount() > 0) {
+            latestFrame.publish(tiles.encode(scaled, encoder));
+            lastWasKeyframe = false;
+        }
+    }
+}
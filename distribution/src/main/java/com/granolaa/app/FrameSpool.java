@@ -0,0 +1,191 @@
+package com.granolaa.app;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the most recent encoded frames of one stream in a fixed-size,
+ * memory-mapped ring file, so the frames of a network outage can be uploaded
+ * afterwards (see {@link CatchUpUpload}). Appending is two buffer copies into
+ * the mapping and no system call, cheap enough for the capture thread; the OS
+ * writes the pages back in its own time. The file is
+ * <pre>
+ *   header: u32 magic, u32 version, u32 index slots, u32 data size, u64 bytes written,
+ *           u64 entries written, u64 start of undelivered frames (ms, 0 if none)
+ *   index:  per slot u64 entry number, u64 capture time (ms), u64 data position, u32 length, u32 encode time (us)
+ *   data:   payloads back to back, wrapping around at the end
+ * </pre>
+ * Entries are numbered by the spool itself, across restarts. Slot
+ * {@code entry % slots} holds an entry, and data positions count every byte ever
+ * written, so an entry is still readable as long as its number is in its slot and
+ * fewer than a data size of bytes were written after it. An existing file of the
+ * same layout is picked up again when the spool is opened, so frames of an outage
+ * that outlasted the client are still there after a restart; see
+ * {@link #pendingFrom()}. Only independent records (plain JPEG) are spooled,
+ * since catch-up skips most frames.
+ */
+final class FrameSpool {
+
+    static final int DEFAULT_MB = 64;
+    static final int SLOTS = 8192;
+
+    private static final int MAGIC = 0x53504F4C; // "SPOL"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final int SLOT_SIZE = 32;
+    private static final int INDEX_START = HEADER_SIZE;
+    private static final int DATA_START = INDEX_START + SLOTS * SLOT_SIZE;
+    /** Largest ring in MB: header, index and frames must fit one mapping of at most 2 GB. */
+    static final int MAX_MB = (Integer.MAX_VALUE - DATA_START) >> 20;
+
+    private final MappedByteBuffer map;
+    private final int capacity;
+    private long written;
+    private long entries;
+
+    /**
+     * Opens the spool file with room for {@code capacity} payload bytes, keeping its
+     * frames if it was written with the same layout and size, else starting empty.
+     */
+    FrameSpool(Path file, int capacity) throws IOException {
+        this.capacity = capacity;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        long size = (long) DATA_START + capacity;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            boolean reuse = channel.size() == size;
+            if (!reuse) channel.truncate(0);
+            // The mapping stays valid after the channel is closed
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            reuse = reuse && map.getInt(0) == MAGIC && map.getInt(4) == VERSION
+                    && map.getInt(8) == SLOTS && map.getInt(12) == capacity;
+            if (reuse) {
+                written = map.getLong(16);
+                entries = map.getLong(24);
+                return;
+            }
+        }
+        map.putLong(16, 0);
+        map.putLong(24, 0);
+        map.putLong(32, 0);
+        map.putInt(4, VERSION);
+        map.putInt(8, SLOTS);
+        map.putInt(12, capacity);
+        map.putInt(0, MAGIC); // last, so a half-written header is never taken for valid
+        // A file of another layout may have left index slots that look like entries
+        for (int slot = INDEX_START; slot < DATA_START; slot += SLOT_SIZE) map.putLong(slot, 0);
+    }
+
+    /**
+     * Opens the file &lt;name&gt;.spool in -Dspool.dir with -Dspool.mb megabytes of frames
+     * (default {@value #DEFAULT_MB}, 1 to {@link #MAX_MB}). Returns null when spooling
+     * is off or the file cannot be created, after saying why.
+     *
+     * @throws IllegalArgumentException if -Dspool.mb is out of range
+     */
+    static FrameSpool fromProperties(String name) {
+        String dir = System.getProperty("spool.dir", "").trim();
+        if (dir.isEmpty()) return null;
+        int mb = Integer.getInteger("spool.mb", DEFAULT_MB);
+        if (mb < 1 || mb > MAX_MB) {
+            throw new IllegalArgumentException("-Dspool.mb must be 1 to " + MAX_MB + ": " + mb);
+        }
+        Path file = Paths.get(dir).resolve(name + ".spool");
+        try {
+            return new FrameSpool(file, (int) (mb * 1024L * 1024));
+        } catch (IOException e) {
+            System.err.println("[" + name + "] cannot spool to " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Copies the published frame into the ring; frames larger than the ring are skipped. */
+    synchronized void append(EncodedFrame frame) {
+        if (frame.length > capacity) return;
+        long position = written;
+        put(position, frame.data, 0, frame.length);
+        written += frame.length;
+
+        long entry = ++entries;
+        int slot = INDEX_START + (int) (entry % SLOTS) * SLOT_SIZE;
+        map.putLong(slot, entry);
+        map.putLong(slot + 8, frame.capturedAtMillis);
+        map.putLong(slot + 16, position);
+        map.putInt(slot + 24, frame.length);
+        map.putInt(slot + 28, frame.encodeMicros);
+        map.putLong(16, written);
+        map.putLong(24, entries);
+    }
+
+    /**
+     * Capture time (ms) from which frames may not have reached the relay and still
+     * wait for catch-up, or 0 if every spooled frame was delivered. Survives restarts.
+     */
+    synchronized long pendingFrom() {
+        return map.getLong(32);
+    }
+
+    /** Records where the undelivered frames start; 0 once everything has been delivered. */
+    synchronized void setPendingFrom(long fromMillis) {
+        map.putLong(32, fromMillis);
+    }
+
+    /**
+     * Entry numbers of spooled frames captured in [{@code fromMillis}, {@code toMillis}],
+     * oldest first, keeping at most one frame per {@code intervalMs}.
+     */
+    synchronized List<Long> thinned(long fromMillis, long toMillis, long intervalMs) {
+        List<Long> picked = new ArrayList<>();
+        long next = fromMillis;
+        for (long entry = Math.max(1, entries - SLOTS + 1); entry <= entries; entry++) {
+            int slot = slotOf(entry);
+            if (slot < 0) continue;
+            long capturedAt = map.getLong(slot + 8);
+            if (capturedAt < next || capturedAt > toMillis) continue;
+            picked.add(entry);
+            next = capturedAt + intervalMs;
+        }
+        return picked;
+    }
+
+    /**
+     * Copies the frame out of the ring, or returns null if it has been overwritten
+     * since. Its sequence number is the entry number, which keeps increasing across
+     * restarts where the stream's own numbering starts over.
+     */
+    synchronized EncodedFrame read(long entry) {
+        int slot = slotOf(entry);
+        if (slot < 0) return null;
+        int length = map.getInt(slot + 24);
+        EncodedFrame frame = EncodedFrame.wrap(new byte[length]);
+        int offset = (int) (map.getLong(slot + 16) % capacity);
+        int first = Math.min(length, capacity - offset);
+        map.get(DATA_START + offset, frame.data, 0, first);
+        map.get(DATA_START, frame.data, first, length - first);
+        frame.sequence = entry;
+        frame.capturedAtMillis = map.getLong(slot + 8);
+        frame.encodeMicros = map.getInt(slot + 28);
+        return frame;
+    }
+
+    /** Index slot of the entry, or -1 if it is not in the ring (any more). */
+    private int slotOf(long entry) {
+        int slot = INDEX_START + (int) (entry % SLOTS) * SLOT_SIZE;
+        if (entry <= 0 || map.getLong(slot) != entry) return -1;
+        return map.getLong(slot + 16) >= written - capacity ? slot : -1;
+    }
+
+    private void put(long position, byte[] src, int off, int len) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(len, capacity - offset);
+        map.put(DATA_START + offset, src, off, first);
+        map.put(DATA_START, src, off + first, len - first);
+    }
+}
@@ -0,0 +1,89 @@
+package com.granolaa.app;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+
+/**
+ * Per-stream JPEG encoder. Keeps one configured ImageWriter, one
+ * {@link Downscaler} and one {@link FrameOutputStream}, and writes into pooled
+ * {@link EncodedFrame}s that the senders put on the wire without copying.
+ * Not thread-safe: each capture thread owns its encoder.
+ */
+final class JpegEncoder {
+
+    private final FramePool pool = new FramePool();
+    private final FrameOutputStream out = new FrameOutputStream();
+    private final ImageWriter writer;
+    private final ImageWriteParam param;
+    private final Downscaler downscaler = new Downscaler();
+    private EncodedFrame current;
+    private float quality = StreamSettings.DEFAULT_QUALITY;
+
+    JpegEncoder() {
+        writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+    }
+
+    /** JPEG quality in [0, 1] for the following frames. */
+    void setQuality(float quality) {
+        if (quality != this.quality) {
+            this.quality = quality;
+            param.setCompressionQuality(quality);
+        }
+    }
+
+    /** Scales into a TYPE_INT_RGB image that is reused while the size stays the same. */
+    BufferedImage scale(BufferedImage raw, double factor) {
+        int w = Math.max(1, (int) (raw.getWidth() * factor));
+        int h = Math.max(1, (int) (raw.getHeight() * factor));
+        return downscaler.scale(raw, w, h);
+    }
+
+    /** Encodes the image as a plain JPEG record. */
+    EncodedFrame encode(RenderedImage image) throws IOException {
+        begin();
+        writeJpeg(image);
+        return finish();
+    }
+
+    /** Starts a record built from several parts; returns the stream to write headers into. */
+    FrameOutputStream begin() {
+        abort();
+        current = pool.acquire();
+        out.reset(current);
+        return out;
+    }
+
+    /** Appends a complete JPEG of the image at the current stream position. */
+    void writeJpeg(RenderedImage image) throws IOException {
+        writer.setOutput(out);
+        writer.write(null, new IIOImage(image, null, null), param);
+    }
+
+    /** Completes the record started by {@link #begin()}; the caller owns the returned frame. */
+    EncodedFrame finish() {
+        EncodedFrame frame = current;
+        current = null;
+        frame.setLength(out.size());
+        return frame;
+    }
+
+    /** Gives back a record whose encoding failed part-way. */
+    private void abort() {
+        if (current != null) {
+            current.release();
+            current = null;
+        }
+    }
+
+    void dispose() {
+        writer.dispose();
+    }
+}
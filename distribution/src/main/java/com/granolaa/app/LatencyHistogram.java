@@ -0,0 +1,128 @@
+package com.granolaa.app;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in fixed buckets, each holding the samples up to its upper
+ * bound, like a Prometheus histogram; samples past the last bound land in a
+ * final, unbounded bucket. The default buckets are 1 ms wide up to
+ * {@value #MAX_MS} ms, for fine percentiles; {@link #forStages()} has the few
+ * wide buckets (0.1 ms to 10 s) that each pipeline stage is exported with.
+ * Recording is a binary search plus two lock-free adds and allocates nothing,
+ * so any number of threads can share one histogram on the frame path.
+ */
+final class LatencyHistogram {
+
+    static final int MAX_MS = 10_000;
+
+    /** Bucket upper bounds ("le") of {@link #forStages()}, in microseconds. */
+    static final long[] STAGE_BOUNDS_MICROS = {
+            100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000, 1_000_000, 2_500_000, 10_000_000
+    };
+
+    private static final long[] MILLISECOND_BOUNDS_MICROS = new long[MAX_MS + 1];
+
+    static {
+        for (int ms = 0; ms <= MAX_MS; ms++) MILLISECOND_BOUNDS_MICROS[ms] = ms * 1000L;
+    }
+
+    private final long[] boundsMicros;
+    private final AtomicLongArray counts;
+    private final LongAdder sumMicros = new LongAdder();
+
+    /** 1 ms buckets from 0 to {@value #MAX_MS} ms. */
+    LatencyHistogram() {
+        this(MILLISECOND_BOUNDS_MICROS);
+    }
+
+    private LatencyHistogram(long[] boundsMicros) {
+        this.boundsMicros = boundsMicros;
+        this.counts = new AtomicLongArray(boundsMicros.length + 1);
+    }
+
+    /** Buckets for pipeline stage durations, bounded by {@link #STAGE_BOUNDS_MICROS}. */
+    static LatencyHistogram forStages() {
+        return new LatencyHistogram(STAGE_BOUNDS_MICROS);
+    }
+
+    void record(long latencyMs) {
+        recordMicros(latencyMs * 1000);
+    }
+
+    void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    private void recordMicros(long micros) {
+        micros = Math.max(0, micros);
+        int i = Arrays.binarySearch(boundsMicros, micros);
+        counts.incrementAndGet(i >= 0 ? i : -i - 1);
+        sumMicros.add(micros);
+    }
+
+    /** Bucket upper bounds in microseconds; {@link #counts()} has one more, unbounded bucket. */
+    long[] boundsMicros() {
+        return boundsMicros.clone();
+    }
+
+    /** Per-bucket (not cumulative) counts; the last entry is the +Inf bucket. */
+    long[] counts() {
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) snapshot[i] = counts.get(i);
+        return snapshot;
+    }
+
+    long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+        return total;
+    }
+
+    long sumMicros() {
+        return sumMicros.sum();
+    }
+
+    double meanMs() {
+        long n = count();
+        return n == 0 ? 0 : sumMicros() / 1000.0 / n;
+    }
+
+    /**
+     * Upper bound in ms of the bucket holding the given fraction of samples, e.g.
+     * 0.99; infinite if that is the unbounded bucket, 0 if empty.
+     */
+    double percentileMs(double fraction) {
+        long[] snapshot = counts();
+        long total = 0;
+        for (long c : snapshot) total += c;
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < boundsMicros.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return boundsMicros[i] / 1000.0;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /** Like {@link #percentileMs}, in whole ms, with the unbounded bucket read as the last bound. */
+    long percentile(double fraction) {
+        return clampedMs(percentileMs(fraction));
+    }
+
+    /** Upper bound in whole ms of the highest bucket with a sample, as {@link #percentile}; 0 if empty. */
+    long max() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) == 0) continue;
+            return clampedMs(i < boundsMicros.length ? boundsMicros[i] / 1000.0 : Double.POSITIVE_INFINITY);
+        }
+        return 0;
+    }
+
+    private long clampedMs(double ms) {
+        return (long) Math.ceil(Math.min(ms, boundsMicros[boundsMicros.length - 1] / 1000.0));
+    }
+}
@@ -0,0 +1,257 @@
+package com.granolaa.app;
+
+import okhttp3.OkHttpClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulates a fleet of streaming clients against a relay, for sizing it. Each
+ * simulated client is a real {@link StreamClient} (same upload path, one shared
+ * OkHttpClient) fed by {@link PrebuiltSource}s that loop over JPEGs encoded once
+ * at startup from {@link SyntheticSource} frames, so a client costs only its
+ * sending. Senders and sources run on virtual threads where the JDK has them.
+ * <p>
+ * Run with {@code mvn exec:java -Dexec.mainClass=com.granolaa.app.LoadGenerator}
+ * and these optional properties:
+ * <ul>
+ *   <li>server.url (default http://localhost:3000, never the public server)</li>
+ *   <li>load.clients (100), load.seconds (60), load.rampup (seconds to start all clients, 10)</li>
+ *   <li>load.fps (5), load.quality (0.75), load.pattern (static, scrolling or noise)</li>
+ *   <li>load.screen (1.0) and load.webcam (0.5): share of clients that send that stream</li>
+ *   <li>load.screen.size (1280x720) and load.webcam.size (640x480)</li>
+ * </ul>
+ * stream.mode applies as for the app. Throughput, send latency percentiles and
+ * the error rate are printed every few seconds, with per-client figures at the end.
+ * Only stream.mode=request measures send latency up to the relay's reply; the
+ * persistent modes get no reply per frame, so theirs is the local write and flush.
+ */
+public class LoadGenerator {
+
+    private static final long REPORT_INTERVAL_MS = 5000;
+    private static final int PREBUILT_FRAMES = 20;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final String latencyMeasures = "request".equalsIgnoreCase(System.getProperty("stream.mode", "chunked"))
+            ? "until the relay replies" : "local write and flush only, no reply per frame";
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final List<ClientStats> clients = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator().run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        String serverUrl = System.getProperty("server.url", "http://localhost:3000");
+        int clientCount = Integer.getInteger("load.clients", 100);
+        if (clientCount <= 0) throw new IllegalArgumentException("-Dload.clients must be at least 1: " + clientCount);
+        long durationMs = Integer.getInteger("load.seconds", 60) * 1000L;
+        long rampUpMs = Integer.getInteger("load.rampup", 10) * 1000L;
+        int fps = Integer.getInteger("load.fps", 5);
+        float quality = Float.parseFloat(System.getProperty("load.quality", String.valueOf(StreamSettings.DEFAULT_QUALITY)));
+        double screenShare = Double.parseDouble(System.getProperty("load.screen", "1.0"));
+        double webcamShare = Double.parseDouble(System.getProperty("load.webcam", "0.5"));
+        String patternName = System.getProperty("load.pattern", "scrolling");
+        SyntheticSource.Pattern pattern = SyntheticSource.pattern(patternName);
+        if (pattern == null) {
+            throw new IllegalArgumentException("-Dload.pattern must be static, scrolling or noise: " + patternName);
+        }
+
+        List<EncodedFrame> screenFrames = prebuild(System.getProperty("load.screen.size", "1280x720"), pattern, quality);
+        List<EncodedFrame> webcamFrames = prebuild(System.getProperty("load.webcam.size", "640x480"), pattern, quality);
+        System.out.println("Load: " + clientCount + " clients at " + fps + " fps against " + serverUrl
+                + ", screen frames ~" + averageSize(screenFrames) / 1024 + " KB, webcam frames ~"
+                + averageSize(webcamFrames) / 1024 + " KB, "
+                + (VirtualThreads.available() ? "virtual threads" : "platform threads (JDK 21+ uses virtual threads)")
+                + ", send latency " + latencyMeasures);
+
+        OkHttpClient http = StreamClient.newHttpClient();
+        ThreadFactory threads = VirtualThreads.factory();
+        List<StreamClient> streamClients = new ArrayList<>();
+        List<FrameSource> sources = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        long nextReport = start + REPORT_INTERVAL_MS;
+        ReportWindow window = new ReportWindow(start);
+
+        for (int i = 0; i < clientCount; i++) {
+            boolean screen = takes(i, screenShare);
+            boolean webcam = takes(i, webcamShare) || !screen; // every client sends something
+            FrameSource screenSource = screen
+                    ? new PrebuiltSource("screen", new StreamSettings(fps, 1.0, quality), screenFrames, i) : null;
+            FrameSource webcamSource = webcam
+                    ? new PrebuiltSource("webcam", new StreamSettings(fps, 1.0, quality), webcamFrames, i) : null;
+            ClientStats stats = new ClientStats(System.currentTimeMillis());
+            clients.add(stats);
+            StreamClient client = new StreamClient(serverUrl, screenSource, webcamSource, http, threads, stats);
+            client.setSendFps(fps * 2); // the sources set the pace; the cap only absorbs jitter
+            for (FrameSource source : new FrameSource[] {screenSource, webcamSource}) {
+                if (source == null) continue;
+                Thread thread = threads.newThread(source);
+                thread.setName(source.getName() + "-capture");
+                thread.start();
+                sources.add(source);
+            }
+            client.start();
+            streamClients.add(client);
+
+            Thread.sleep(rampUpMs / clientCount);
+            if (System.currentTimeMillis() >= nextReport) {
+                window.report(streamClients.size());
+                nextReport += REPORT_INTERVAL_MS;
+            }
+        }
+
+        long end = start + rampUpMs + durationMs;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(Math.max(1, Math.min(nextReport, end) - System.currentTimeMillis()));
+            if (System.currentTimeMillis() >= nextReport) {
+                window.report(streamClients.size());
+                nextReport += REPORT_INTERVAL_MS;
+            }
+        }
+
+        for (StreamClient client : streamClients) client.stop();
+        for (FrameSource source : sources) source.stop();
+        summary(System.currentTimeMillis());
+        http.dispatcher().executorService().shutdown();
+        http.connectionPool().evictAll();
+    }
+
+    /** Encodes a short run of synthetic frames once; every simulated stream of this kind sends these. */
+    private static List<EncodedFrame> prebuild(String size, SyntheticSource.Pattern pattern, float quality)
+            throws IOException {
+        String[] parts = size.toLowerCase().split("x");
+        int width = Integer.parseInt(parts[0].trim());
+        int height = Integer.parseInt(parts[1].trim());
+        StreamSettings settings = new StreamSettings(1, 1.0, quality);
+        SyntheticSource source = new SyntheticSource("load", settings, false, pattern, width, height, 1);
+        source.open();
+        JpegEncoder encoder = new JpegEncoder();
+        encoder.setQuality(quality);
+        List<EncodedFrame> frames = new ArrayList<>();
+        for (int i = 0; i < PREBUILT_FRAMES; i++) {
+            frames.add(encoder.encode(source.grab())); // kept for the whole run, never released
+        }
+        encoder.dispose();
+        return frames;
+    }
+
+    private static long averageSize(List<EncodedFrame> frames) {
+        long total = 0;
+        for (EncodedFrame frame : frames) total += frame.length;
+        return total / frames.size();
+    }
+
+    /** Spreads a share of clients evenly over the client numbers, e.g. 0.5 = every other client. */
+    private static boolean takes(int client, double share) {
+        return Math.floor((client + 1) * share) > Math.floor(client * share);
+    }
+
+    private void summary(long now) {
+        long count = sent.sum();
+        long failed = failures.sum();
+        System.out.println("---");
+        System.out.printf("Total: %d frames, %.1f MB, %d errors (%.2f%%)%n",
+                count, bytes.sum() / 1e6, failed, errorRate(count, failed));
+        System.out.printf("Send latency (" + latencyMeasures + "): p50 %d ms, p90 %d ms, p99 %d ms, p99.9 %d ms, max %d ms%n",
+                latency.percentile(0.50), latency.percentile(0.90), latency.percentile(0.99),
+                latency.percentile(0.999), latency.max());
+
+        double[] meanLatency = new double[clients.size()];
+        double[] rate = new double[clients.size()];
+        long worstMaxNanos = 0;
+        for (int i = 0; i < clients.size(); i++) {
+            ClientStats client = clients.get(i);
+            meanLatency[i] = client.meanLatencyMs();
+            rate[i] = client.sent.get() * 1000.0 / Math.max(1, now - client.started);
+            worstMaxNanos = Math.max(worstMaxNanos, client.maxLatencyNanos.get());
+        }
+        Arrays.sort(meanLatency);
+        Arrays.sort(rate);
+        System.out.printf("Per client mean latency: p50 %.1f ms, p99 %.1f ms, worst %.1f ms (slowest single send %.1f ms)%n",
+                at(meanLatency, 0.50), at(meanLatency, 0.99), at(meanLatency, 1.0), worstMaxNanos / 1e6);
+        System.out.printf("Per client frames/s: min %.1f, p50 %.1f, max %.1f%n",
+                at(rate, 0.0), at(rate, 0.50), at(rate, 1.0));
+    }
+
+    private static double at(double[] sorted, double fraction) {
+        if (sorted.length == 0) return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(fraction * (sorted.length - 1)))];
+    }
+
+    private static double errorRate(long sentCount, long failed) {
+        long attempts = sentCount + failed;
+        return attempts == 0 ? 0 : 100.0 * failed / attempts;
+    }
+
+    /** Prints throughput since the previous report, and latency percentiles so far. */
+    private final class ReportWindow {
+
+        private final long start;
+        private long lastAt;
+        private long lastSent;
+        private long lastBytes;
+        private long lastFailures;
+
+        ReportWindow(long start) {
+            this.start = start;
+            this.lastAt = start;
+        }
+
+        void report(int running) {
+            long now = System.currentTimeMillis();
+            long count = sent.sum();
+            long volume = bytes.sum();
+            long failed = failures.sum();
+            double seconds = Math.max(1, now - lastAt) / 1000.0;
+            System.out.printf("[load] %3ds  clients %d  %.0f frames/s  %.2f MB/s  p50 %d ms  p99 %d ms  max %d ms  errors %.2f%%%n",
+                    (now - start) / 1000, running, (count - lastSent) / seconds, (volume - lastBytes) / seconds / 1e6,
+                    latency.percentile(0.50), latency.percentile(0.99), latency.max(),
+                    errorRate(count - lastSent, failed - lastFailures));
+            lastAt = now;
+            lastSent = count;
+            lastBytes = volume;
+            lastFailures = failed;
+        }
+    }
+
+    /** Per-client counters; also feeds the fleet-wide totals and histogram. */
+    private final class ClientStats implements SendListener {
+
+        final long started;
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong latencyTotalNanos = new AtomicLong();
+        final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        ClientStats(long started) {
+            this.started = started;
+        }
+
+        @Override
+        public void onSent(int size, long latencyNanos) {
+            sent.incrementAndGet();
+            latencyTotalNanos.addAndGet(latencyNanos);
+            maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+            LoadGenerator.this.sent.increment();
+            bytes.add(size);
+            latency.recordNanos(latencyNanos);
+        }
+
+        @Override
+        public void onFailure() {
+            failures.increment();
+        }
+
+        double meanLatencyMs() {
+            long count = sent.get();
+            return count == 0 ? 0 : latencyTotalNanos.get() / 1e6 / count;
+        }
+    }
+}
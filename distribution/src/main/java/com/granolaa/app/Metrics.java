@@ -0,0 +1,143 @@
+package com.granolaa.app;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publishes the registered streams' {@link StreamMetrics} over JMX
+ * ({@code com.granolaa:type=Stream,name=<stream>}) and, with -Dmetrics.port, as
+ * Prometheus text on http://127.0.0.1:&lt;port&gt;/metrics. Nothing here is on the
+ * frame path: exposition reads the counters when asked.
+ */
+public final class Metrics {
+
+    private static final String PREFIX = "granolaa_";
+    private static final List<StreamMetrics> STREAMS = new CopyOnWriteArrayList<>();
+    private static HttpServer server;
+
+    private Metrics() {
+    }
+
+    /** Adds the source's stream to JMX and the metrics endpoint. */
+    public static void register(FrameSource source) {
+        register(source.getMetrics());
+    }
+
+    /**
+     * Registers the stream's MBean, then adds it to the endpoint. A stream JMX
+     * refuses (e.g. a second one by the same name) is left out of both, so the two
+     * always list the same streams.
+     */
+    static void register(StreamMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                    new ObjectName("com.granolaa:type=Stream,name=" + ObjectName.quote(metrics.getStream())));
+        } catch (JMException e) {
+            System.err.println("JMX registration failed for " + metrics.getStream() + ": " + e.getMessage());
+            return;
+        }
+        STREAMS.add(metrics);
+    }
+
+    /** The streams the endpoint exports, in registration order. */
+    static List<StreamMetrics> streams() {
+        return Collections.unmodifiableList(STREAMS);
+    }
+
+    /** Starts the endpoint if -Dmetrics.port is set; returns whether it is running. */
+    public static synchronized boolean startServerFromProperties() {
+        Integer port = Integer.getInteger("metrics.port");
+        if (port == null || server != null) return server != null;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = prometheusText(STREAMS).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            System.out.println("Metrics: http://127.0.0.1:" + port + "/metrics");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Metrics endpoint failed to start on port " + port + ": " + e.getMessage());
+            server = null;
+            return false;
+        }
+    }
+
+    public static synchronized void stopServer() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /** The streams in the Prometheus text exposition format (0.0.4). */
+    static String prometheusText(List<StreamMetrics> streams) {
+        StringBuilder out = new StringBuilder(4096);
+        counter(out, streams, "frames_captured_total", "Frames encoded and handed to the sender.", StreamMetrics::getFramesCaptured);
+        counter(out, streams, "frames_sent_total", "Frames written to the upload.", StreamMetrics::getFramesSent);
+        counter(out, streams, "frames_dropped_total", "Frames replaced by a newer one before the sender picked them up.",
+                StreamMetrics::getFramesDropped);
+        counter(out, streams, "frames_unchanged_total", "Frames grabbed but not encoded because they had not changed.",
+                StreamMetrics::getFramesUnchanged);
+        counter(out, streams, "upload_bytes_total", "Bytes uploaded, length prefixes included.", StreamMetrics::getBytesUploaded);
+        counter(out, streams, "send_failures_total", "Failed sends and broken uploads.", StreamMetrics::getSendFailures);
+
+        out.append("# HELP ").append(PREFIX).append("stage_seconds Time per frame spent in each pipeline stage.\n");
+        out.append("# TYPE ").append(PREFIX).append("stage_seconds histogram\n");
+        for (StreamMetrics stream : streams) {
+            for (StreamMetrics.Stage stage : StreamMetrics.Stage.values()) {
+                LatencyHistogram histogram = stream.histogram(stage);
+                long[] bounds = histogram.boundsMicros();
+                String labels = "stream=\"" + stream.getStream() + "\",stage=\"" + stage.label() + "\"";
+                long[] counts = histogram.counts();
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    String le = i < bounds.length ? seconds(bounds[i]) : "+Inf";
+                    out.append(PREFIX).append("stage_seconds_bucket{").append(labels)
+                            .append(",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+                }
+                out.append(PREFIX).append("stage_seconds_sum{").append(labels).append("} ")
+                        .append(seconds(histogram.sumMicros())).append('\n');
+                out.append(PREFIX).append("stage_seconds_count{").append(labels).append("} ")
+                        .append(cumulative).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private interface Reading {
+        long of(StreamMetrics metrics);
+    }
+
+    private static void counter(StringBuilder out, List<StreamMetrics> streams, String name, String help,
+                                Reading reading) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+        for (StreamMetrics stream : streams) {
+            out.append(PREFIX).append(name).append("{stream=\"").append(stream.getStream()).append("\"} ")
+                    .append(reading.of(stream)).append('\n');
+        }
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1e6).replaceAll("0+$", "").replaceAll("\\.$", "");
+    }
+}
@@ -0,0 +1,54 @@
+package com.granolaa.app;
+
+import okhttp3.OkHttpClient;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * One chunked POST to /stream/mux that carries all of a client's streams, so a
+ * client needs a single connection (and, over TLS, a single handshake; OkHttp
+ * uses HTTP/2 when the server offers it). Each record is tagged with the channel
+ * it belongs to: [4-byte length][1-byte channel][payload], the length counting
+ * the channel byte and the payload optionally starting with a {@link FrameHeader}.
+ * server.js maps channels back to streams by the order of the {@code streams}
+ * query parameter. Which stream goes next is up to the feed.
+ */
+final class MultiplexedUpload extends ChunkedUpload {
+
+    /** A feed that interleaves several streams and says which one each frame came from. */
+    interface ChannelFeed extends FrameFeed {
+
+        /** Channel of the frame {@link #next()} returned last. */
+        int channel();
+
+        /** Listener for sends on the channel. */
+        SendListener listener(int channel);
+    }
+
+    private final ChannelFeed frames;
+
+    /** {@code failures} hears about broken uploads, which hit every channel at once. */
+    MultiplexedUpload(OkHttpClient client, String url, ChannelFeed frames,
+                      BooleanSupplier running, SendListener failures) {
+        super(client, url, "mux", frames, running, failures);
+        this.frames = frames;
+    }
+
+    @Override
+    void writeFrame(BufferedSink sink, EncodedFrame frame) throws IOException {
+        int channel = frames.channel();
+        try {
+            long start = System.nanoTime();
+            sink.writeInt(1 + FrameHeader.size(frame) + frame.length);
+            sink.writeByte(channel);
+            FrameHeader.write(sink, frame);
+            sink.write(frame.data, 0, frame.length);
+            sink.flush();
+            frames.listener(channel).onSent(FrameHeader.wireLength(frame) + 1, System.nanoTime() - start);
+        } finally {
+            frame.release();
+        }
+    }
+}
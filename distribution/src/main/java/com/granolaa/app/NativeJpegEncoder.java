@@ -0,0 +1,74 @@
+package com.granolaa.app;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+
+import java.io.IOException;
+
+import static org.bytedeco.opencv.global.opencv_imgcodecs.IMWRITE_JPEG_QUALITY;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imencode;
+import static org.bytedeco.opencv.global.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.opencv.global.opencv_imgproc.resize;
+
+/**
+ * Per-stream JPEG encoder for frames that already live in native memory as
+ * 8-bit BGR OpenCV Mats (camera frames). Scaling and compression both run in
+ * OpenCV, so the pixels never enter the Java heap; only the compressed bytes are
+ * copied, once, from a reused native buffer into a pooled {@link EncodedFrame}
+ * the sender writes as-is. Not thread-safe: each capture thread owns its encoder.
+ */
+final class NativeJpegEncoder {
+
+    private final FramePool pool = new FramePool();
+    private final BytePointer jpeg;
+    private final IntPointer params;
+    private final Mat scaled;
+    private final Size scaledSize;
+
+    NativeJpegEncoder() {
+        // The quality constant is inlined, so nothing else would load OpenCV before the pointers
+        Loader.load(opencv_imgcodecs.class);
+        jpeg = new BytePointer();
+        params = new IntPointer(IMWRITE_JPEG_QUALITY, percent(StreamSettings.DEFAULT_QUALITY));
+        scaled = new Mat();
+        scaledSize = new Size();
+    }
+
+    /** Scales by {@code factor} (if below 1) and encodes the frame as a plain JPEG record. */
+    EncodedFrame encode(Mat bgr, double factor, float quality) throws IOException {
+        Mat source = bgr;
+        if (factor < 1.0) {
+            scaledSize.width(Math.max(1, (int) (bgr.cols() * factor)));
+            scaledSize.height(Math.max(1, (int) (bgr.rows() * factor)));
+            // INTER_AREA averages the covered pixels, like the heap downscaler's box filter
+            resize(bgr, scaled, scaledSize, 0, 0, INTER_AREA);
+            source = scaled;
+        }
+        params.put(1, percent(quality));
+        if (!imencode(".jpg", source, jpeg, params)) {
+            throw new IOException("OpenCV could not encode a " + source.cols() + "x" + source.rows() + " frame");
+        }
+        int size = (int) jpeg.limit();
+        EncodedFrame frame = pool.acquire();
+        frame.ensureCapacity(size);
+        jpeg.position(0).get(frame.data, 0, size);
+        frame.setLength(size);
+        return frame;
+    }
+
+    /** OpenCV takes JPEG quality as 0-100 where the settings use 0-1. */
+    private static int percent(float quality) {
+        return Math.max(0, Math.min(100, Math.round(quality * 100)));
+    }
+
+    void dispose() {
+        jpeg.close();
+        params.close();
+        scaled.close();
+        scaledSize.close();
+    }
+}
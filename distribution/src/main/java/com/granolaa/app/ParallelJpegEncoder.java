@@ -0,0 +1,109 @@
+package com.granolaa.app;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Scales and JPEG-encodes a frame as horizontal strips in parallel on a shared
+ * ForkJoin pool, one strip per core, and joins them into a tile record with
+ * {@link TileEncoder#FLAG_COMPLETE} set, which the viewer draws like a keyframe.
+ * Strip heights are multiples of 16 rows so JPEG blocks never straddle a seam.
+ * Not thread-safe: each capture thread owns its encoder.
+ */
+final class ParallelJpegEncoder {
+
+    private static final int MCU_ROWS = 16;
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Integer.getInteger("encode.threads", Runtime.getRuntime().availableProcessors()));
+
+    private final FramePool pool = new FramePool();
+    private final FrameOutputStream out = new FrameOutputStream();
+    private final List<Strip> strips = new ArrayList<>();
+
+    /** Number of strips a frame is cut into: the pool's parallelism. */
+    static int parallelism() {
+        return POOL.getParallelism();
+    }
+
+    /** Scales the raw frame by {@code scale} and encodes it; the caller owns the returned record. */
+    EncodedFrame encode(BufferedImage raw, double scale, float quality) throws IOException {
+        int width = Math.max(1, (int) (raw.getWidth() * scale));
+        int height = Math.max(1, (int) (raw.getHeight() * scale));
+        int stripHeight = Math.max(MCU_ROWS, (height / parallelism() + MCU_ROWS - 1) / MCU_ROWS * MCU_ROWS);
+        int count = (height + stripHeight - 1) / stripHeight;
+        while (strips.size() < count) strips.add(new Strip());
+
+        List<Callable<EncodedFrame>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Strip strip = strips.get(i);
+            int y = i * stripHeight;
+            int h = Math.min(stripHeight, height - y);
+            tasks.add(() -> strip.encode(raw, width, height, y, h, quality));
+        }
+
+        List<EncodedFrame> parts = new ArrayList<>(count);
+        try {
+            for (Future<EncodedFrame> future : POOL.invokeAll(tasks)) {
+                parts.add(future.get());
+            }
+            return join(parts, width, height, stripHeight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("Strip encoding failed", cause);
+        } finally {
+            for (EncodedFrame part : parts) part.release();
+        }
+    }
+
+    void dispose() {
+        for (Strip strip : strips) strip.encoder.dispose();
+    }
+
+    /** Copies the strip JPEGs into one tile record (see {@link TileEncoder} for the layout). */
+    private EncodedFrame join(List<EncodedFrame> parts, int width, int height, int stripHeight) throws IOException {
+        int size = 8;
+        for (EncodedFrame part : parts) size += 8 + part.length;
+        EncodedFrame frame = pool.acquire();
+        frame.ensureCapacity(size);
+        out.reset(frame);
+        out.writeByte(TileEncoder.RECORD_TILES);
+        out.writeByte(TileEncoder.FLAG_COMPLETE);
+        out.writeShort(width);
+        out.writeShort(height);
+        out.writeShort(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            EncodedFrame part = parts.get(i);
+            out.writeShort(0);
+            out.writeShort(i * stripHeight);
+            out.writeInt(part.length);
+            out.write(part.data, 0, part.length);
+        }
+        frame.setLength(out.size());
+        return frame;
+    }
+
+    /** One strip's encoder and downscaler, used by one pool task at a time. */
+    private static final class Strip {
+
+        private final JpegEncoder encoder = new JpegEncoder();
+        private final Downscaler downscaler = new Downscaler();
+
+        EncodedFrame encode(BufferedImage raw, int width, int height, int y, int h, float quality) throws IOException {
+            encoder.setQuality(quality);
+            if (width == raw.getWidth() && height == raw.getHeight() && raw.getType() == BufferedImage.TYPE_INT_RGB) {
+                return encoder.encode(raw.getSubimage(0, y, width, h));
+            }
+            return encoder.encode(downscaler.scale(raw, width, height, y, h));
+        }
+    }
+}
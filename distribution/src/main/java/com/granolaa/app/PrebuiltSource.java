@@ -0,0 +1,45 @@
+package com.granolaa.app;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Publishes a fixed list of already encoded records in a loop at the stream's
+ * fps, without capturing or encoding anything, so one JVM can simulate many
+ * clients (see {@link LoadGenerator}). Records are shared between sources,
+ * never copied.
+ */
+final class PrebuiltSource extends FrameSource {
+
+    private final List<EncodedFrame> records;
+    private int next;
+
+    /** Starts at record {@code offset}, so clients sharing the list do not send in lockstep. */
+    PrebuiltSource(String name, StreamSettings settings, List<EncodedFrame> records, int offset) {
+        super(name, settings, false);
+        this.records = records;
+        this.next = offset % records.size();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (isRunning()) {
+                long start = System.currentTimeMillis();
+                publishRecord(records.get(next).share());
+                next = (next + 1) % records.size();
+                long sleep = getSettings().frameIntervalMs() - (System.currentTimeMillis() - start);
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected BufferedImage grab() {
+        return null; // run() publishes the records directly
+    }
+}
@@ -0,0 +1,84 @@
+package com.granolaa.app;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Plays back a recorded image sequence from a directory, in a loop. With an
+ * index file as written by {@link FrameRecorder} each image is shown at its
+ * recorded offset; if the stream's fps is lower than the recording's, frames are
+ * skipped so playback keeps the recorded pace. Without an index, the directory's
+ * images play in name order at the stream's fps.
+ */
+public class ReplaySource extends FrameSource {
+
+    private final Path dir;
+    private final List<Path> files = new ArrayList<>();
+    private final List<Long> offsets = new ArrayList<>();
+    private int next;
+    private long loopStart;
+
+    public ReplaySource(String name, StreamSettings settings, boolean delta, Path dir) {
+        super(name, settings, delta);
+        this.dir = dir;
+    }
+
+    @Override
+    protected boolean open() throws IOException {
+        files.clear();
+        offsets.clear();
+        Path index = dir.resolve(FrameRecorder.INDEX);
+        if (Files.exists(index)) {
+            for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ", 2);
+                if (parts.length < 2) continue;
+                offsets.add(Long.parseLong(parts[0]));
+                files.add(dir.resolve(parts[1]));
+            }
+        } else {
+            try (Stream<Path> listing = Files.list(dir)) {
+                files.addAll(listing.filter(ReplaySource::isImage).sorted().collect(Collectors.toList()));
+            }
+            long interval = getSettings().frameIntervalMs();
+            for (int i = 0; i < files.size(); i++) offsets.add(i * interval);
+        }
+        if (files.isEmpty()) {
+            System.err.println("[" + getName() + "] no frames to replay in " + dir);
+            return false;
+        }
+        next = 0;
+        loopStart = System.currentTimeMillis();
+        return true;
+    }
+
+    /** Waits until the next frame is due, skipping any whose successor is due already. */
+    @Override
+    protected BufferedImage grab() throws IOException, InterruptedException {
+        if (next == files.size()) {
+            // Show the last frame for one interval, then start over (now, if playback fell behind)
+            loopStart = Math.max(loopStart + offsets.get(next - 1) + getSettings().frameIntervalMs(),
+                    System.currentTimeMillis());
+            next = 0;
+        }
+        long wait = loopStart + offsets.get(next) - System.currentTimeMillis();
+        if (wait > 0) Thread.sleep(wait);
+        long now = System.currentTimeMillis();
+        while (next + 1 < files.size() && loopStart + offsets.get(next + 1) <= now) {
+            next++;
+        }
+        return ImageIO.read(files.get(next++).toFile());
+    }
+
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".bmp");
+    }
+}
@@ -0,0 +1,144 @@
+package com.granolaa.app;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends every frame as its own POST, asynchronously: up to {@code maxInFlight}
+ * requests at once, with frames waiting for a free slot in a small queue. When
+ * the queue is full the oldest waiting frame is dropped (and counted), so after a
+ * slow request the stream carries on with the newest frame instead of working
+ * through stale ones. With one request in flight only the newest frame waits: the
+ * next request after a stall sends that rather than older frames. Only for
+ * streams whose frames stand alone; tile and video records must arrive in order
+ * and go through the synchronous path.
+ */
+final class RequestPipeline {
+
+    private final OkHttpClient client;
+    private final String url;
+    private final String name;
+    private final FrameFeed frames;
+    private final BooleanSupplier running;
+    private final SendListener listener;
+    private final StreamMetrics metrics;
+    private final int queueCapacity;
+    private final int maxInFlight;
+    private final ArrayDeque<EncodedFrame> queue = new ArrayDeque<>();
+    private final AtomicInteger responses = new AtomicInteger();
+    private int inFlight;
+
+    RequestPipeline(OkHttpClient client, String url, String name, FrameFeed frames, BooleanSupplier running,
+                    SendListener listener, StreamMetrics metrics, int queueCapacity, int maxInFlight) {
+        this.client = client;
+        this.url = url;
+        this.name = name;
+        this.frames = frames;
+        this.running = running;
+        this.listener = listener;
+        this.metrics = metrics;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.queueCapacity = this.maxInFlight == 1 ? 1 : Math.max(1, queueCapacity);
+    }
+
+    /** Queues frames from the feed until stopped; requests still in flight then finish on their own. */
+    void run() {
+        try {
+            while (running.getAsBoolean()) {
+                EncodedFrame frame = frames.next();
+                if (frame != null) offer(frame);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                for (EncodedFrame frame : queue) frame.release();
+                queue.clear();
+            }
+        }
+    }
+
+    /** Number of frames waiting for a free request slot. */
+    synchronized int queued() {
+        return queue.size();
+    }
+
+    private synchronized void offer(EncodedFrame frame) {
+        if (queue.size() == queueCapacity) {
+            queue.pollFirst().release();
+            metrics.dropped(1);
+        }
+        queue.addLast(frame);
+        dispatch();
+    }
+
+    private synchronized void dispatch() {
+        while (inFlight < maxInFlight && !queue.isEmpty() && running.getAsBoolean()) {
+            EncodedFrame frame = queue.pollFirst();
+            Request request = new Request.Builder()
+                    .url(url)
+                    .post(FrameHeader.requestBody(frame))
+                    .build();
+            inFlight++;
+            client.newCall(request).enqueue(new Send(frame));
+        }
+    }
+
+    private synchronized void finished() {
+        inFlight--;
+        dispatch();
+    }
+
+    /** Completion of one POST; hands the frame's buffer back and frees its slot. */
+    private final class Send implements Callback {
+
+        private final EncodedFrame frame;
+        private final long start = System.nanoTime();
+
+        Send(EncodedFrame frame) {
+            this.frame = frame;
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            try (Response r = response) {
+                if (responses.incrementAndGet() == 1) {
+                    System.out.println("[" + name + "] POST " + url + " -> " + r.code());
+                }
+                if (!r.isSuccessful()) System.err.println("[" + name + "] " + r.code());
+                if (r.body() != null) {
+                    r.body().bytes(); // Read and discard
+                }
+                if (r.isSuccessful()) {
+                    listener.onSent(FrameHeader.wireLength(frame), System.nanoTime() - start);
+                } else {
+                    listener.onFailure();
+                }
+            } catch (IOException e) {
+                onFailure(call, e);
+                return;
+            }
+            done();
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            if (running.getAsBoolean()) System.err.println("[" + name + "] " + e.getMessage());
+            listener.onFailure();
+            done();
+        }
+
+        private void done() {
+            frame.release();
+            finished();
+        }
+    }
+}
@@ -1,20 +1,54 @@
 package com.granolaa.app;
 
-import javax.imageio.ImageIO;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
+
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Captures the primary screen at a fixed rate and holds the latest JPEG frame
- * for MJPEG streaming. Not supported on Linux Wayland (macOS and Windows only).
+ * Captures one display (by default the primary one), or a region of it, at a
+ * fixed rate and holds the latest JPEG frame for MJPEG streaming. Not supported
+ * on Linux Wayland.
+ * <p>
+ * On Linux X11 the screen is read through FFmpeg's x11grab (shared memory, see
+ * {@link Backend}) rather than {@link Robot}. Its frames stay in native memory,
+ * so plain JPEG streams are scaled and encoded in OpenCV (see
+ * {@link FrameSource#grabMat()}) instead of through a new heap image per frame.
+ * <p>
+ * Supports delta mode and the H.264 codec setting (see {@link FrameSource}).
  */
-public class ScreenCapture implements Runnable {
+public class ScreenCapture extends FrameSource {
 
     private static final int DEFAULT_FPS = 5;
     private static final String WAYLAND_DISPLAY = "WAYLAND_DISPLAY";
     private static final String XDG_SESSION_TYPE = "XDG_SESSION_TYPE";
+    /** x11grab's own frame clock; higher than any stream fps so a grab hardly ever waits for it. */
+    private static final int GRABBER_FPS = 60;
+
+    /** How frames are read from the screen, from -Dscreen.backend (or screen.&lt;n&gt;.backend). */
+    public enum Backend {
+        /** {@link Robot}: macOS, Windows and X11, one new heap image per frame. */
+        ROBOT,
+        /** FFmpeg's x11grab through JavaCV: X11 only, frames copied once via MIT-SHM into native memory. */
+        X11GRAB,
+        /** x11grab on Linux X11, falling back to Robot if FFmpeg cannot open the display; Robot elsewhere. */
+        AUTO;
+
+        static Backend fromProperties(String name) {
+            String property = System.getProperty(name + ".backend") != null ? name + ".backend" : "screen.backend";
+            String spec = System.getProperty(property, "auto");
+            for (Backend backend : values()) {
+                if (backend.name().equalsIgnoreCase(spec.trim())) return backend;
+            }
+            throw new IllegalArgumentException("-D" + property + " must be robot, x11grab or auto: " + spec);
+        }
+    }
 
     /** Returns true if running on Linux under Wayland (screen capture unsupported). */
     public static boolean isWayland() {
@@ -30,69 +64,241 @@ public class ScreenCapture implements Runnable {
     public boolean isScreenCaptureSupported() {
         return !isWayland();
     }
+
+    /** The X display x11grab reads: -Dscreen.x11.display, else $DISPLAY; null if neither is set. */
+    static String x11Display() {
+        String display = System.getProperty("screen.x11.display", System.getenv("DISPLAY"));
+        return display == null || display.trim().isEmpty() ? null : display.trim();
+    }
+
+    private static boolean isX11() {
+        return System.getProperty("os.name", "").toLowerCase().contains("linux") && !isWayland()
+                && x11Display() != null;
+    }
     private static final double DEFAULT_SCALE = 0.5; // half size to reduce bandwidth
 
-    private final AtomicReference<byte[]> latestFrame = new AtomicReference<>(new byte[0]);
-    private volatile boolean running = true;
-    private final int fps;
-    private final double scale;
+    private final int display;
+    private final Rectangle region;
+    private final Backend backend;
+    private Robot robot;
+    private Rectangle captureArea;
+    private FFmpegFrameGrabber grabber;
+    private Java2DFrameConverter converter;
+    private OpenCVFrameConverter.ToMat toMat;
 
     public ScreenCapture() {
         this(DEFAULT_FPS, DEFAULT_SCALE);
     }
 
     public ScreenCapture(int fps, double scale) {
-        this.fps = fps;
-        this.scale = scale;
+        this(new StreamSettings(fps, scale, StreamSettings.DEFAULT_QUALITY), false);
+    }
+
+    public ScreenCapture(StreamSettings settings, boolean delta) {
+        this("screen", settings, delta, -1, null);
+    }
+
+    /**
+     * Captures display {@code display} (an index into the screen devices, or -1
+     * for the default one), or only {@code region} of it, given in that display's
+     * own coordinates (null: the whole display). Reads the screen with
+     * {@link Backend#AUTO}, as {@link #fromProperties} does by default.
+     */
+    public ScreenCapture(String name, StreamSettings settings, boolean delta, int display, Rectangle region) {
+        this(name, settings, delta, display, region, Backend.AUTO);
+    }
+
+    /** As above, reading the screen with {@code backend}. */
+    public ScreenCapture(String name, StreamSettings settings, boolean delta, int display, Rectangle region,
+                         Backend backend) {
+        super(name, settings, delta);
+        this.display = display;
+        this.region = region;
+        this.backend = backend;
+    }
+
+    /**
+     * Builds the screen streams from system properties. By default that is one
+     * stream of the default display, cropped to -Dscreen.region=x,y,width,height if
+     * set. -Dscreen.displays=all (or e.g. 0,2) streams those displays instead, as
+     * "screen.0", "screen.2" and so on; each reads screen.&lt;n&gt;.fps, .scale,
+     * .quality, .codec, .region, .source and .backend, falling back to the screen.*
+     * values. -Dscreen.backend picks how the screen is read (see {@link Backend},
+     * default auto).
+     * The first stream is the client's screen; the others go out as sub-streams
+     * (see {@link StreamClient#addScreen}).
+     */
+    public static List<FrameSource> fromProperties(boolean delta) {
+        StreamSettings base = defaultSettings();
+        List<FrameSource> screens = new ArrayList<>();
+        String displays = System.getProperty("screen.displays", "").trim();
+        if (displays.isEmpty()) {
+            Rectangle region = parseRegion(System.getProperty("screen.region"));
+            Backend backend = Backend.fromProperties("screen");
+            screens.add(FrameSource.fromProperties("screen", base, delta,
+                    () -> new ScreenCapture("screen", base, delta, -1, region, backend)));
+            return screens;
+        }
+        for (int display : parseDisplays(displays)) {
+            String name = "screen." + display;
+            StreamSettings settings = StreamSettings.fromProperties(name, base);
+            Rectangle region = parseRegion(System.getProperty(name + ".region", System.getProperty("screen.region")));
+            Backend backend = Backend.fromProperties(name);
+            screens.add(FrameSource.fromProperties(name, settings, delta,
+                    () -> new ScreenCapture(name, settings, delta, display, region, backend)));
+        }
+        return screens;
+    }
+
+    /** Number of displays, 0 when headless. */
+    public static int displayCount() {
+        if (GraphicsEnvironment.isHeadless()) return 0;
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices().length;
+    }
+
+    private static List<Integer> parseDisplays(String spec) {
+        List<Integer> displays = new ArrayList<>();
+        if (spec.equalsIgnoreCase("all")) {
+            for (int i = 0; i < displayCount(); i++) displays.add(i);
+        } else {
+            for (String part : spec.split(",")) displays.add(Integer.parseInt(part.trim()));
+        }
+        if (displays.isEmpty()) displays.add(-1); // headless: let the default display report the error
+        return displays;
+    }
+
+    /** Parses "x,y,width,height"; null or empty means no region. */
+    static Rectangle parseRegion(String spec) {
+        if (spec == null || spec.trim().isEmpty()) return null;
+        String[] parts = spec.split(",");
+        if (parts.length != 4) throw new IllegalArgumentException("Region must be x,y,width,height: " + spec);
+        return new Rectangle(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
     }
 
-    public byte[] getLatestFrame() {
-        return latestFrame.get();
+    /** Settings read on every frame (default {@value #DEFAULT_FPS} fps at half size). */
+    public static StreamSettings defaultSettings() {
+        return StreamSettings.fromProperties("screen", DEFAULT_FPS, DEFAULT_SCALE);
     }
 
-    public void stop() {
-        running = false;
+    @Override
+    public boolean isAvailable() {
+        return isScreenCaptureSupported(); // on Wayland only the webcam will stream
     }
 
     @Override
-    public void run() {
-        if (isWayland()) {
-            return; // Screen capture not supported on Wayland; only webcam will stream
+    protected boolean open() throws Exception {
+        if (backend == Backend.X11GRAB || (backend == Backend.AUTO && isX11())) {
+            try {
+                return openGrabber();
+            } catch (Exception | LinkageError e) {
+                closeGrabber();
+                if (backend == Backend.X11GRAB) throw e;
+                System.err.println("[" + getName() + "] x11grab unavailable (" + e.getMessage() + "), using Robot");
+            }
+        }
+        GraphicsDevice device = device();
+        if (device == null) return false;
+        // Robot(device) takes rectangles in the virtual desktop coordinates the device's bounds use
+        robot = new Robot(device);
+        captureArea = captureArea(device);
+        return captureArea != null;
+    }
+
+    /**
+     * Starts x11grab on the capture area. X11 puts all monitors of a screen into
+     * one root window, in the same coordinates AWT uses for the devices' bounds.
+     * Without AWT (headless) the region is taken in root window coordinates and
+     * only the whole screen can be chosen.
+     */
+    private boolean openGrabber() throws Exception {
+        Rectangle area = region;
+        if (!GraphicsEnvironment.isHeadless()) {
+            GraphicsDevice device = device();
+            if (device == null) return false;
+            area = captureArea(device);
+            if (area == null) return false;
+        } else if (display >= 0) {
+            System.err.println("[" + getName() + "] display " + display + " needs AWT, which is headless");
+            return false;
+        }
+        String screen = x11Display();
+        if (screen == null) throw new IllegalStateException("x11grab needs DISPLAY or -Dscreen.x11.display");
+        grabber = new FFmpegFrameGrabber(area == null ? screen : screen + "+" + area.x + "," + area.y);
+        grabber.setFormat("x11grab");
+        if (area != null) {
+            grabber.setImageWidth(area.width);
+            grabber.setImageHeight(area.height);
+        }
+        grabber.setFrameRate(GRABBER_FPS);
+        // One converter each for the whole session: they reuse their images between frames
+        converter = new Java2DFrameConverter();
+        toMat = new OpenCVFrameConverter.ToMat();
+        grabber.start();
+        return true;
+    }
+
+    /** The display to capture, or null (after saying why) if there is no such display. */
+    private GraphicsDevice device() {
+        GraphicsEnvironment environment = GraphicsEnvironment.getLocalGraphicsEnvironment();
+        GraphicsDevice[] devices = environment.getScreenDevices();
+        if (display >= devices.length) {
+            System.err.println("[" + getName() + "] no display " + display + " (found " + devices.length + ")");
+            return null;
         }
-        try {
-            Robot robot = new Robot();
-            Rectangle captureArea = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
-            long intervalMs = 1000L / Math.max(1, fps);
-
-            while (running) {
-                long start = System.currentTimeMillis();
-                BufferedImage raw = robot.createScreenCapture(captureArea);
-
-                int w = (int) (raw.getWidth() * scale);
-                int h = (int) (raw.getHeight() * scale);
-                if (w < 1) w = 1;
-                if (h < 1) h = 1;
-
-                BufferedImage scaled = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-                Graphics2D g = scaled.createGraphics();
-                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                g.drawImage(raw, 0, 0, w, h, null);
-                g.dispose();
-
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ImageIO.write(scaled, "jpg", baos);
-                latestFrame.set(baos.toByteArray());
-
-                long elapsed = System.currentTimeMillis() - start;
-                long sleep = Math.max(0, intervalMs - elapsed);
-                if (sleep > 0) {
-                    Thread.sleep(sleep);
-                }
+        return display < 0 ? environment.getDefaultScreenDevice() : devices[display];
+    }
+
+    /** The device's bounds, cropped to the region if there is one; null (after saying why) if it is outside. */
+    private Rectangle captureArea(GraphicsDevice device) {
+        Rectangle bounds = device.getDefaultConfiguration().getBounds();
+        if (region == null) return bounds;
+        Rectangle wanted = new Rectangle(bounds.x + region.x, bounds.y + region.y, region.width, region.height);
+        Rectangle area = wanted.intersection(bounds);
+        if (area.isEmpty()) {
+            System.err.println("[" + getName() + "] region " + region + " is outside the display " + bounds);
+            return null;
+        }
+        return area;
+    }
+
+    @Override
+    protected boolean grabsMats() {
+        return grabber != null;
+    }
+
+    @Override
+    protected Mat grabMat() throws Exception {
+        // x11grab frames are BGR already; the Mat shares their memory
+        Frame frame = grabber.grabImage();
+        return frame != null && frame.image != null ? toMat.convert(frame) : null;
+    }
+
+    @Override
+    protected BufferedImage grab() throws Exception {
+        if (grabber != null) {
+            Frame frame = grabber.grabImage();
+            return frame != null && frame.image != null ? converter.convert(frame) : null;
+        }
+        return robot.createScreenCapture(captureArea);
+    }
+
+    @Override
+    protected void close() {
+        closeGrabber();
+    }
+
+    private void closeGrabber() {
+        if (grabber != null) {
+            try {
+                grabber.release();
+            } catch (Exception ignored) {
             }
-        } catch (AWTException e) {
-            System.err.println("Screen capture failed: " + e.getMessage());
-        } catch (Exception e) {
-            System.err.println("Screen capture error: " + e.getMessage());
+            grabber = null;
         }
+        if (converter != null) converter.close();
+        if (toMat != null) toMat.close();
+        converter = null;
+        toMat = null;
     }
 }
@@ -0,0 +1,40 @@
+package com.granolaa.app;
+
+/**
+ * Told about the outcome of every frame a stream sends.
+ */
+interface SendListener {
+
+    SendListener NONE = new SendListener() {
+        @Override
+        public void onSent(int bytes, long latencyNanos) {
+        }
+
+        @Override
+        public void onFailure() {
+        }
+    };
+
+    /** Tells both listeners about every send. */
+    static SendListener both(SendListener first, SendListener second) {
+        return new SendListener() {
+            @Override
+            public void onSent(int bytes, long latencyNanos) {
+                first.onSent(bytes, latencyNanos);
+                second.onSent(bytes, latencyNanos);
+            }
+
+            @Override
+            public void onFailure() {
+                first.onFailure();
+                second.onFailure();
+            }
+        };
+    }
+
+    /** A record of {@code bytes} bytes went out; {@code latencyNanos} is how long the write or POST took. */
+    void onSent(int bytes, long latencyNanos);
+
+    /** A send failed or the upload connection broke. */
+    void onFailure();
+}
@@ -1,97 +1,311 @@
 package com.granolaa.app;
 
-import okhttp3.MediaType;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
+import javax.net.SocketFactory;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Sends frames to the server at 10 FPS. Same request format as SendOneFrameTest.
+ * Sends each new frame as soon as its capture source publishes it, at most 10
+ * times per second (-Dsend.fps). By default each stream keeps one chunked POST
+ * open and writes frames into it (see {@link ChunkedUpload}); with
+ * -Dstream.mode=request every frame is its own POST, the same request format as
+ * SendOneFrameTest, sent asynchronously with a few in flight (see
+ * {@link RequestPipeline}), and with -Dstream.mode=mux all streams share one
+ * chunked POST (see {@link MultiplexedUpload}), screens ahead of the webcam.
+ * Unless -Dadaptive=false, an {@link AdaptiveBitrateController} per stream tunes
+ * the capture settings to the measured send latency; the persistent uploads'
+ * sockets get a small send buffer (-Dsend.buffer, KB) so a write blocks, and
+ * shows up as latency, soon after the uplink falls behind. Streams with a
+ * {@link FrameSpool} upload a catch-up of each outage once it is over (see
+ * {@link CatchUpUpload}).
  */
 public class StreamClient {
 
-    private static final long SEND_INTERVAL_MS = 100; // 10 FPS
-    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+    private static final int DEFAULT_SEND_FPS = 10;
+    private static final int DEFAULT_SEND_QUEUE = 2;
+    private static final int DEFAULT_IN_FLIGHT = 2;
+    private static final int DEFAULT_SEND_BUFFER_KB = 128;
+    private static final String STREAM_MODE = "stream.mode";
+    private static final long IDLE_TIMEOUT_MS = 1000;
+    /** In mux mode, a lower-priority stream that has waited this long goes ahead of the others. */
+    private static final long STARVATION_MS = 1000;
+    private static final EncodedFrame PLACEHOLDER = EncodedFrame.wrap(minimalJpeg());
 
     private final String baseUrl;
     private final String clientId;
-    private final ScreenCapture screenCapture;
-    private final WebcamCapture webcamCapture;
+    private final FrameSource screenSource;
+    private final FrameSource webcamSource;
     private final OkHttpClient client;
+    /** For the chunked and mux uploads: {@link #client} with a bounded socket send buffer. */
+    private final OkHttpClient uploadClient;
+    private final ThreadFactory threads;
+    private final SendListener listener;
+    private final boolean persistent;
+    private final boolean multiplexed;
+    private final boolean adaptive;
+    private final int sendQueue;
+    private final int maxInFlight;
+    private volatile long sendIntervalMs;
+    private final List<FrameSource> extraScreens = new ArrayList<>();
+    private final List<Thread> senders = new ArrayList<>();
     private volatile boolean running = true;
-    private Thread screenThread;
-    private Thread webcamThread;
 
-    public StreamClient(String serverUrl, ScreenCapture screenCapture, WebcamCapture webcamCapture) {
+    /** Streams the two sources as this client's screen and webcam streams. */
+    public StreamClient(String serverUrl, FrameSource screenSource, FrameSource webcamSource) {
+        this(serverUrl, screenSource, webcamSource, newHttpClient(), StreamClient::newDaemonThread, null);
+    }
+
+    /**
+     * For running many clients in one JVM: shares the HTTP client, creates sender
+     * threads with the given factory, and when {@code listener} is non-null reports
+     * every send to it instead of an adaptive controller. Either source may be null.
+     */
+    StreamClient(String serverUrl, FrameSource screenSource, FrameSource webcamSource,
+                 OkHttpClient client, ThreadFactory threads, SendListener listener) {
         this.baseUrl = serverUrl;
         this.clientId = UUID.randomUUID().toString();
-        this.screenCapture = screenCapture;
-        this.webcamCapture = webcamCapture;
-        this.client = new OkHttpClient.Builder()
+        this.screenSource = screenSource;
+        this.webcamSource = webcamSource;
+        this.client = client;
+        this.threads = threads;
+        this.listener = listener;
+        String mode = System.getProperty(STREAM_MODE, "chunked");
+        this.persistent = !"request".equalsIgnoreCase(mode);
+        this.multiplexed = "mux".equalsIgnoreCase(mode);
+        this.adaptive = !"false".equalsIgnoreCase(System.getProperty("adaptive", "true"));
+        this.sendQueue = Integer.getInteger("send.queue", DEFAULT_SEND_QUEUE);
+        // Overlapping POSTs can arrive out of order; viewers only put them back in order by the
+        // sequence numbers in the timing header, so without it one goes at a time
+        this.maxInFlight = Integer.getInteger("send.inflight", FrameHeader.enabled() ? DEFAULT_IN_FLIGHT : 1);
+        int sendBufferKb = Integer.getInteger("send.buffer", DEFAULT_SEND_BUFFER_KB);
+        this.uploadClient = persistent && sendBufferKb > 0 ? withSendBuffer(client, sendBufferKb * 1024) : client;
+        setSendFps(Integer.getInteger("send.fps", DEFAULT_SEND_FPS));
+    }
+
+    static OkHttpClient newHttpClient() {
+        // Streams bound their own requests in flight; OkHttp's per-host limit of 5 would queue them
+        Dispatcher dispatcher = new Dispatcher(Executors.newCachedThreadPool(StreamClient::newDaemonThread));
+        dispatcher.setMaxRequests(1024);
+        dispatcher.setMaxRequestsPerHost(1024);
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
                 .connectTimeout(10, TimeUnit.SECONDS)
                 .readTimeout(5, TimeUnit.SECONDS)
                 .writeTimeout(5, TimeUnit.SECONDS)
                 .build();
     }
 
+    /**
+     * The client, with sockets that buffer at most about {@code bytes} of unsent
+     * data. A persistent upload learns nothing from the relay per frame, only how
+     * long a write takes, and with the OS's default buffer of several MB a write
+     * only starts to block seconds after the uplink fell behind; with a small one
+     * it blocks within about {@code bytes} / uplink rate. It also caps throughput
+     * at about {@code bytes} per round trip, hence the default of 128 KB.
+     */
+    static OkHttpClient withSendBuffer(OkHttpClient client, int bytes) {
+        SocketFactory sockets = SocketFactory.getDefault();
+        return client.newBuilder()
+                .socketFactory(new SocketFactory() {
+                    @Override
+                    public Socket createSocket() throws IOException {
+                        return bounded(sockets.createSocket());
+                    }
+
+                    @Override
+                    public Socket createSocket(String host, int port) throws IOException {
+                        return bounded(sockets.createSocket(host, port));
+                    }
+
+                    @Override
+                    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                            throws IOException {
+                        return bounded(sockets.createSocket(host, port, localHost, localPort));
+                    }
+
+                    @Override
+                    public Socket createSocket(InetAddress host, int port) throws IOException {
+                        return bounded(sockets.createSocket(host, port));
+                    }
+
+                    @Override
+                    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                            throws IOException {
+                        return bounded(sockets.createSocket(address, port, localAddress, localPort));
+                    }
+
+                    private Socket bounded(Socket socket) throws IOException {
+                        socket.setSendBufferSize(bytes);
+                        return socket;
+                    }
+                })
+                .build();
+    }
+
+    private static Thread newDaemonThread(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /** Upper bound on frames sent per second per stream; can be changed while running. */
+    public void setSendFps(int fps) {
+        this.sendIntervalMs = 1000L / Math.max(1, fps);
+    }
+
+    /**
+     * Streams another screen, e.g. a second display, as a sub-stream. Viewers
+     * show it as its own client, "&lt;clientId&gt;-&lt;source name&gt;". Call before
+     * {@link #start()}.
+     */
+    public void addScreen(FrameSource source) {
+        extraScreens.add(source);
+    }
+
     public void start() {
-        if (screenCapture.isScreenCaptureSupported()) {
-            screenThread = new Thread(this::runScreen, "screen-sender");
-            screenThread.setDaemon(true);
-            screenThread.start();
+        if (multiplexed) {
+            startMultiplexed();
+            return;
         }
-        webcamThread = new Thread(this::runWebcam, "webcam-sender");
-        webcamThread.setDaemon(true);
-        webcamThread.start();
+        startSender(clientId, "screen", screenSource);
+        startSender(clientId, "webcam", webcamSource);
+        for (FrameSource screen : extraScreens) {
+            startSender(clientId + "-" + screen.getName(), "screen", screen);
+        }
+    }
+
+    /** Starts a sender thread for the stream, unless the source cannot run here. */
+    private void startSender(String streamClientId, String streamType, FrameSource source) {
+        if (source == null || !source.isAvailable()) return;
+        SequencedFeed feed = new SequencedFeed(source);
+        SendListener catchUp = startCatchUp(streamClientId, streamType, source, feed);
+        Thread thread = threads.newThread(() -> runSource(streamClientId, streamType, source, feed, catchUp));
+        thread.setName(source.getName() + "-sender");
+        thread.start();
+        senders.add(thread);
+    }
+
+    /**
+     * Starts one sender for all streams. Channels are numbered in priority order:
+     * the screen, any extra screens, then the webcam. Extra screens are named by
+     * their source names, from which the server derives their sub-stream ids.
+     */
+    private void startMultiplexed() {
+        List<FrameSource> sources = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        addChannel(sources, names, "screen", screenSource);
+        for (FrameSource screen : extraScreens) addChannel(sources, names, screen.getName(), screen);
+        addChannel(sources, names, "webcam", webcamSource);
+        if (sources.isEmpty()) return;
+
+        MultiplexedFeed feed = new MultiplexedFeed(sources, names);
+        String streams = String.join(",", names);
+        String url = baseUrl + "/stream/mux?clientId=" + clientId + "&streams=" + streams;
+        Thread thread = threads.newThread(() -> new MultiplexedUpload(uploadClient, url, feed, () -> running,
+                feed.failures()).run());
+        thread.setName("mux-sender");
+        thread.start();
+        senders.add(thread);
+    }
+
+    private static void addChannel(List<FrameSource> sources, List<String> names, String name, FrameSource source) {
+        if (source == null || !source.isAvailable()) return;
+        sources.add(source);
+        names.add(name);
+    }
+
+    /**
+     * Starts a {@link CatchUpUpload} of the stream's spool on its own low-priority
+     * thread and returns it, to be told about the live sends; without a spool,
+     * returns {@link SendListener#NONE}.
+     */
+    private SendListener startCatchUp(String streamClientId, String streamType, FrameSource source,
+                                      SequencedFeed feed) {
+        FrameSpool spool = source.getSpool();
+        if (spool == null) return SendListener.NONE;
+        String url = baseUrl + "/stream/catchup?clientId=" + streamClientId + "&stream=" + streamType;
+        CatchUpUpload catchUp = new CatchUpUpload(client, url, source.getName(), spool, feed::isIdle, () -> running);
+        Thread thread = threads.newThread(catchUp::run);
+        thread.setName(source.getName() + "-catchup");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        senders.add(thread);
+        return catchUp;
     }
 
     public void stop() {
         running = false;
-        if (screenThread != null) screenThread.interrupt();
-        if (webcamThread != null) webcamThread.interrupt();
+        for (Thread sender : senders) sender.interrupt();
     }
 
     public String getClientId() {
         return clientId;
     }
 
-    private void runScreen() {
-        String url = baseUrl + "/stream/screen?clientId=" + clientId;
-        int n = 0;
-        while (running) {
-            byte[] frame = screenCapture.getLatestFrame();
-            if (frame == null || frame.length == 0) frame = minimalJpeg();
-            sendOne(url, frame, "screen", ++n);
-            sleep();
+    private void runSource(String streamClientId, String streamType, FrameSource source, SequencedFeed feed,
+                           SendListener catchUp) {
+        SendListener sends = SendListener.both(SendListener.both(source.getMetrics(),
+                listener(source.getName(), source.getSettings())), catchUp);
+        String url = baseUrl + "/stream/" + streamType + "?clientId=" + streamClientId;
+        if (!persistent && !source.isIncremental()) {
+            new RequestPipeline(client, url, source.getName(), feed, () -> running, sends, source.getMetrics(),
+                    sendQueue, maxInFlight).run();
+            return;
         }
+        runStream(url, source.getName(), feed, sends);
+    }
+
+    private SendListener listener(String name, StreamSettings settings) {
+        if (listener != null) return listener;
+        return adaptive ? new AdaptiveBitrateController(name, settings) : SendListener.NONE;
     }
 
-    private void runWebcam() {
-        String url = baseUrl + "/stream/webcam?clientId=" + clientId;
+    /**
+     * Sends frames from the feed until stopped, one at a time. Frames are released
+     * once written.
+     */
+    private void runStream(String url, String name, FrameFeed frames, SendListener listener) {
+        if (persistent) {
+            new ChunkedUpload(uploadClient, url, name, frames, () -> running, listener).run();
+            return;
+        }
         int n = 0;
-        while (running) {
-            byte[] frame = webcamCapture.getLatestFrame();
-            if (frame == null || frame.length == 0) frame = minimalJpeg();
-            sendOne(url, frame, "webcam", ++n);
-            sleep();
+        try {
+            while (running) {
+                EncodedFrame frame = frames.next();
+                if (frame == null) continue;
+                try {
+                    sendOne(url, frame, name, ++n, listener);
+                } finally {
+                    frame.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private void sendOne(String url, byte[] frame, String name, int count) {
-        ByteBuffer buf = ByteBuffer.allocate(4 + frame.length);
-        buf.putInt(frame.length);
-        buf.put(frame);
-        byte[] body = buf.array();
+    /** Posts one record straight from the frame's buffer (see {@link FrameHeader#requestBody}). */
+    private void sendOne(String url, EncodedFrame frame, String name, int count, SendListener listener) {
         Request request = new Request.Builder()
                 .url(url)
-                .post(RequestBody.create(body, OCTET_STREAM))
+                .post(FrameHeader.requestBody(frame))
                 .build();
+        long start = System.nanoTime();
         try (Response response = client.newCall(request).execute()) {
             if (count == 1) System.out.println("[" + name + "] POST " + url + " -> " + response.code());
             if (!response.isSuccessful()) System.err.println("[" + name + "] " + response.code());
@@ -99,16 +313,199 @@ public class StreamClient {
             if (response.body() != null) {
                 response.body().bytes(); // Read and discard
             }
+            if (response.isSuccessful()) {
+                listener.onSent(FrameHeader.wireLength(frame), System.nanoTime() - start);
+            } else {
+                listener.onFailure();
+            }
         } catch (IOException e) {
             System.err.println("[" + name + "] " + e.getMessage());
+            listener.onFailure();
         }
     }
 
-    private void sleep() {
-        try {
-            Thread.sleep(SEND_INTERVAL_MS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    /**
+     * Feeds a sender each frame once, in sequence order, as soon as it is published.
+     * Until the source has produced anything, a placeholder JPEG goes out every
+     * {@value #IDLE_TIMEOUT_MS} ms so the stream shows up (not for incremental
+     * streams, whose viewers need a real keyframe first).
+     */
+    private final class SequencedFeed implements FrameFeed {
+
+        private final FrameSource source;
+        private final StreamMetrics metrics;
+        private final boolean placeholder;
+        private volatile long lastSequence;
+        private long lastSentAt;
+
+        SequencedFeed(FrameSource source) {
+            this.source = source;
+            this.metrics = source.getMetrics();
+            this.placeholder = !source.isIncremental();
+        }
+
+        @Override
+        public EncodedFrame next() throws InterruptedException {
+            long wait = lastSentAt + sendIntervalMs - System.currentTimeMillis();
+            if (wait > 0) Thread.sleep(wait); // send rate cap; only hit when capture is faster
+            return accept(source.awaitFrame(lastSequence, IDLE_TIMEOUT_MS));
+        }
+
+        /** Like {@link #next()}, but returns null instead of waiting for a frame or the rate cap. */
+        EncodedFrame poll() throws InterruptedException {
+            long now = System.currentTimeMillis();
+            if (now < lastSentAt + sendIntervalMs) return null;
+            EncodedFrame frame = source.awaitFrame(lastSequence, 0);
+            if (frame == null && now - lastSentAt < IDLE_TIMEOUT_MS) return null;
+            return accept(frame);
+        }
+
+        /** Milliseconds until this feed can send, or -1 if it has nothing to send. */
+        long dueInMs() {
+            long now = System.currentTimeMillis();
+            if (source.hasFrameAfter(lastSequence)) return Math.max(0, lastSentAt + sendIntervalMs - now);
+            if (placeholder && lastSequence == 0) return Math.max(0, lastSentAt + IDLE_TIMEOUT_MS - now);
+            return -1;
+        }
+
+        long lastSentAt() {
+            return lastSentAt;
+        }
+
+        /** True if the sender has taken the latest frame, so nothing is waiting to go out. */
+        boolean isIdle() {
+            return !source.hasFrameAfter(lastSequence);
+        }
+
+        private EncodedFrame accept(EncodedFrame frame) {
+            if (frame != null) {
+                metrics.record(StreamMetrics.Stage.QUEUE, System.nanoTime() - frame.publishedNanos);
+                if (lastSequence > 0) metrics.dropped(frame.sequence - lastSequence - 1);
+                lastSequence = frame.sequence;
+            } else if (placeholder && lastSequence == 0) {
+                frame = PLACEHOLDER;
+            } else {
+                return null;
+            }
+            lastSentAt = System.currentTimeMillis();
+            return frame;
+        }
+    }
+
+    /**
+     * Interleaves several streams for one {@link MultiplexedUpload}. Whenever the
+     * upload is ready for another record, the first stream in priority order with a
+     * frame ready goes next, so when bandwidth is short the lower streams lose
+     * frames first. A stream that has not sent for {@value #STARVATION_MS} ms goes
+     * ahead of the others, so none stops entirely.
+     */
+    private final class MultiplexedFeed implements MultiplexedUpload.ChannelFeed {
+
+        private final List<SequencedFeed> feeds = new ArrayList<>();
+        private final List<SendListener> listeners = new ArrayList<>();
+        private final ReentrantLock wakeupLock = new ReentrantLock();
+        private final Condition wakeup = wakeupLock.newCondition();
+        private boolean published;
+        private int current;
+
+        /** {@code names} are the channel names sent to the server, as in {@code ?streams=}. */
+        MultiplexedFeed(List<FrameSource> sources, List<String> names) {
+            for (int i = 0; i < sources.size(); i++) {
+                FrameSource source = sources.get(i);
+                SequencedFeed feed = new SequencedFeed(source);
+                String name = names.get(i);
+                String streamType = name.split("\\.")[0];
+                String streamClientId = name.equals(streamType) ? clientId : clientId + "-" + name;
+                feeds.add(feed);
+                listeners.add(SendListener.both(SendListener.both(source.getMetrics(),
+                        StreamClient.this.listener(source.getName(), source.getSettings())),
+                        startCatchUp(streamClientId, streamType, source, feed)));
+                source.onPublish(this::wake);
+            }
+        }
+
+        private void wake() {
+            wakeupLock.lock();
+            try {
+                published = true;
+                wakeup.signalAll();
+            } finally {
+                wakeupLock.unlock();
+            }
+        }
+
+        @Override
+        public EncodedFrame next() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MS;
+            while (true) {
+                EncodedFrame frame = pollStarved();
+                if (frame == null) frame = pollInOrder();
+                if (frame != null) return frame;
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return null;
+                long due = remaining;
+                for (SequencedFeed feed : feeds) {
+                    long dueIn = feed.dueInMs();
+                    if (dueIn >= 0) due = Math.min(due, Math.max(1, dueIn));
+                }
+                // A lock, not a monitor: a virtual thread waiting here must not pin its carrier
+                wakeupLock.lock();
+                try {
+                    if (!published) wakeup.await(due, TimeUnit.MILLISECONDS);
+                    published = false;
+                } finally {
+                    wakeupLock.unlock();
+                }
+            }
+        }
+
+        private EncodedFrame pollStarved() throws InterruptedException {
+            long now = System.currentTimeMillis();
+            for (int i = 1; i < feeds.size(); i++) {
+                SequencedFeed feed = feeds.get(i);
+                if (now - feed.lastSentAt() < STARVATION_MS) continue;
+                EncodedFrame frame = feed.poll();
+                if (frame != null) {
+                    current = i;
+                    return frame;
+                }
+            }
+            return null;
+        }
+
+        private EncodedFrame pollInOrder() throws InterruptedException {
+            for (int i = 0; i < feeds.size(); i++) {
+                EncodedFrame frame = feeds.get(i).poll();
+                if (frame != null) {
+                    current = i;
+                    return frame;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public int channel() {
+            return current;
+        }
+
+        @Override
+        public SendListener listener(int channel) {
+            return listeners.get(channel);
+        }
+
+        /** Tells every stream about a broken upload. */
+        SendListener failures() {
+            return new SendListener() {
+                @Override
+                public void onSent(int bytes, long latencyNanos) {
+                }
+
+                @Override
+                public void onFailure() {
+                    for (SendListener listener : listeners) listener.onFailure();
+                }
+            };
         }
     }
 
@@ -0,0 +1,117 @@
+package com.granolaa.app;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Timings and counters for one stream: a {@link LatencyHistogram} per pipeline
+ * stage, and frames captured, sent, dropped (replaced before the sender got to
+ * them), skipped as unchanged, and bytes uploaded. The capture loop and sender
+ * record into it; see {@link Metrics} for how it is published.
+ */
+final class StreamMetrics implements SendListener, StreamMetricsMXBean {
+
+    enum Stage {
+        GRAB, SCALE, ENCODE, QUEUE, SEND;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final String stream;
+    private final LongSupplier captured;
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /** {@code captured} reports how many frames the capture loop has published so far. */
+    StreamMetrics(String stream, LongSupplier captured) {
+        this.stream = stream;
+        this.captured = captured;
+        for (int i = 0; i < stages.length; i++) stages[i] = LatencyHistogram.forStages();
+    }
+
+    String getStream() {
+        return stream;
+    }
+
+    void record(Stage stage, long nanos) {
+        stages[stage.ordinal()].recordNanos(nanos);
+    }
+
+    LatencyHistogram histogram(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    void dropped(long frames) {
+        if (frames > 0) dropped.add(frames);
+    }
+
+    /** A grabbed frame was not encoded because it had not changed. */
+    void unchanged() {
+        unchanged.increment();
+    }
+
+    @Override
+    public void onSent(int size, long latencyNanos) {
+        sent.increment();
+        bytes.add(size);
+        record(Stage.SEND, latencyNanos);
+    }
+
+    @Override
+    public void onFailure() {
+        failures.increment();
+    }
+
+    @Override
+    public long getFramesCaptured() {
+        return captured.getAsLong();
+    }
+
+    @Override
+    public long getFramesSent() {
+        return sent.sum();
+    }
+
+    @Override
+    public long getFramesDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getFramesUnchanged() {
+        return unchanged.sum();
+    }
+
+    @Override
+    public long getBytesUploaded() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getSendFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMs() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) result.put(stage.label(), histogram(stage).meanMs());
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getStageP99Ms() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) result.put(stage.label(), histogram(stage).percentileMs(0.99));
+        return result;
+    }
+}
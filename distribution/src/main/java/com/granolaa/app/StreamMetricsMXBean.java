@@ -0,0 +1,29 @@
+package com.granolaa.app;
+
+import java.util.Map;
+
+/**
+ * JMX view of one stream's {@link StreamMetrics}, registered as
+ * {@code com.granolaa:type=Stream,name=<stream>}.
+ */
+public interface StreamMetricsMXBean {
+
+    long getFramesCaptured();
+
+    long getFramesSent();
+
+    long getFramesDropped();
+
+    /** Frames grabbed but not encoded because they had not changed. */
+    long getFramesUnchanged();
+
+    long getBytesUploaded();
+
+    long getSendFailures();
+
+    /** Mean duration per stage (grab, scale, encode, queue, send) in ms. */
+    Map<String, Double> getStageMeanMs();
+
+    /** 99th percentile per stage in ms, as the upper bound of its histogram bucket. */
+    Map<String, Double> getStageP99Ms();
+}
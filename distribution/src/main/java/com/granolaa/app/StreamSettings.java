@@ -0,0 +1,100 @@
+package com.granolaa.app;
+
+/**
+ * Capture parameters for one stream that can change while it runs. Capture loops
+ * read them on every frame, so updates from configuration or from the
+ * {@link AdaptiveBitrateController} take effect on the next tick.
+ */
+public class StreamSettings {
+
+    public static final float DEFAULT_QUALITY = 0.75f; // ImageIO's default
+
+    /** How frames are compressed: independent JPEGs, or an H.264 stream (see {@link VideoEncoder}). */
+    public enum Codec { JPEG, H264 }
+
+    private volatile int fps;
+    private volatile double scale;
+    private volatile float quality;
+    private volatile Codec codec = Codec.JPEG;
+
+    public StreamSettings(int fps, double scale, float quality) {
+        setFps(fps);
+        setScale(scale);
+        setQuality(quality);
+    }
+
+    /**
+     * Reads {@code <prefix>.fps}, {@code <prefix>.scale}, {@code <prefix>.quality} and
+     * {@code <prefix>.codec} from system properties, e.g. -Dscreen.fps=10 -Dscreen.codec=h264.
+     */
+    public static StreamSettings fromProperties(String prefix, int defaultFps, double defaultScale) {
+        return fromProperties(prefix, new StreamSettings(defaultFps, defaultScale, DEFAULT_QUALITY));
+    }
+
+    /** Same, with any property that is not set taken from {@code defaults}. */
+    public static StreamSettings fromProperties(String prefix, StreamSettings defaults) {
+        StreamSettings settings = new StreamSettings(
+                Integer.getInteger(prefix + ".fps", defaults.getFps()),
+                Double.parseDouble(System.getProperty(prefix + ".scale", String.valueOf(defaults.getScale()))),
+                Float.parseFloat(System.getProperty(prefix + ".quality", String.valueOf(defaults.getQuality()))));
+        String codecName = System.getProperty(prefix + ".codec", defaults.getCodec().name());
+        Codec codec = codec(codecName);
+        if (codec == null) {
+            throw new IllegalArgumentException("-D" + prefix + ".codec must be jpeg or h264: " + codecName);
+        }
+        settings.setCodec(codec);
+        return settings;
+    }
+
+    /** Looks up a codec by name in any case, or returns null if there is none by that name. */
+    static Codec codec(String name) {
+        for (Codec codec : Codec.values()) {
+            if (codec.name().equalsIgnoreCase(name.trim())) return codec;
+        }
+        return null;
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    public void setFps(int fps) {
+        this.fps = Math.max(1, fps);
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    /** Fraction of the captured size to encode, in (0, 1]. */
+    public void setScale(double scale) {
+        this.scale = Math.min(1.0, Math.max(0.05, scale));
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    /** Quality in [0, 1]: the JPEG quality, or the bitrate budget in H.264 mode. */
+    public void setQuality(float quality) {
+        this.quality = Math.min(1f, Math.max(0f, quality));
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /** Takes effect when the capture loop starts. */
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    public long frameIntervalMs() {
+        return 1000L / fps;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("fps %d, scale %.2f, quality %.2f", fps, scale, quality);
+    }
+}
@@ -0,0 +1,117 @@
+package com.granolaa.app;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates frames instead of capturing them, so the encode and send path can be
+ * measured on a headless machine. Frame n depends only on the pattern, size, seed
+ * and n, so two runs with the same parameters produce the same pixels.
+ * <ul>
+ *   <li>{@link Pattern#STATIC}: a fixed document-like page; after the first
+ *       frame nothing changes (best case for delta mode)</li>
+ *   <li>{@link Pattern#SCROLLING}: the same page scrolling by a few rows per
+ *       frame, like reading or browsing</li>
+ *   <li>{@link Pattern#NOISE}: fresh random pixels every frame (worst case for
+ *       every codec)</li>
+ * </ul>
+ */
+public class SyntheticSource extends FrameSource {
+
+    public enum Pattern { STATIC, SCROLLING, NOISE }
+
+    /** Looks up a pattern by name in any case, or returns null if there is none by that name. */
+    static Pattern pattern(String name) {
+        for (Pattern pattern : Pattern.values()) {
+            if (pattern.name().equalsIgnoreCase(name)) return pattern;
+        }
+        return null;
+    }
+
+    private static final int SCROLL_ROWS_PER_FRAME = 8;
+    private static final int PAGE_SCREENS = 3;
+
+    private final Pattern pattern;
+    private final int width;
+    private final int height;
+    private final long seed;
+    private BufferedImage image;
+    private int[] pixels;
+    private int[] page;
+    private int pageHeight;
+    private long index;
+
+    public SyntheticSource(String name, StreamSettings settings, boolean delta,
+                           Pattern pattern, int width, int height, long seed) {
+        super(name, settings, delta);
+        this.pattern = pattern;
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+    }
+
+    @Override
+    protected boolean open() {
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        pageHeight = pattern == Pattern.SCROLLING ? height * PAGE_SCREENS : height;
+        page = renderPage(width, pageHeight, new Random(seed));
+        index = 0;
+        return true;
+    }
+
+    /** Returns the next frame in a reused TYPE_INT_RGB image. */
+    @Override
+    protected BufferedImage grab() {
+        long n = index++;
+        switch (pattern) {
+            case STATIC:
+                if (n == 0) System.arraycopy(page, 0, pixels, 0, pixels.length);
+                break;
+            case SCROLLING:
+                int top = (int) ((n * SCROLL_ROWS_PER_FRAME) % pageHeight);
+                for (int y = 0; y < height; y++) {
+                    System.arraycopy(page, ((top + y) % pageHeight) * width, pixels, y * width, width);
+                }
+                break;
+            case NOISE:
+                long state = seed * 0x9E3779B97F4A7C15L + n + 1;
+                for (int i = 0; i < pixels.length; i++) {
+                    // xorshift64: fast, and the sequence is fixed by the seed and frame number
+                    state ^= state << 13;
+                    state ^= state >>> 7;
+                    state ^= state << 17;
+                    pixels[i] = (int) state & 0xFFFFFF;
+                }
+                break;
+        }
+        return image;
+    }
+
+    /** Light background, a header bar and rows of dark "words", drawn without fonts so every platform agrees. */
+    private static int[] renderPage(int w, int h, Random random) {
+        int[] page = new int[w * h];
+        Arrays.fill(page, 0xF4F4F4);
+        fillRect(page, w, 0, 0, w, Math.min(h, 40), 0x2D5B88);
+        int lineHeight = 18;
+        for (int y = 60; y + lineHeight <= h; y += lineHeight) {
+            if (random.nextInt(8) == 0) continue; // paragraph break
+            int x = 40;
+            int end = w - 40 - random.nextInt(Math.max(1, w / 4));
+            while (x < end) {
+                int word = 12 + random.nextInt(60);
+                fillRect(page, w, x, y + 4, Math.min(word, end - x), 9, random.nextInt(5) == 0 ? 0x1F5FBF : 0x303030);
+                x += word + 8;
+            }
+        }
+        return page;
+    }
+
+    private static void fillRect(int[] page, int stride, int x, int y, int w, int h, int rgb) {
+        for (int row = y; row < y + h; row++) {
+            Arrays.fill(page, row * stride + x, row * stride + x + w, rgb);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.granolaa.app;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Splits TYPE_INT_RGB frames into fixed-size tiles, tracks which tiles changed
+ * since the last frame the sender picked up, and encodes only those tiles.
+ * <p>
+ * Tile record layout (big-endian). Plain JPEG records start with 0xFF, so the
+ * first byte tells the two apart:
+ * <pre>
+ *   u8  RECORD_TILES
+ *   u8  flags (bit 0: FLAG_COMPLETE, the tiles cover the whole frame)
+ *   u16 frame width, u16 frame height
+ *   u16 tile count
+ *   per tile: u16 x, u16 y, u32 length, JPEG bytes
+ * </pre>
+ */
+class TileEncoder {
+
+    static final int RECORD_TILES = 0x01;
+    /** Set when the tiles cover the whole frame, so the viewer can start from this record. */
+    static final int FLAG_COMPLETE = 0x01;
+    static final int DEFAULT_TILE_SIZE = 64;
+
+    private final int tileSize;
+    private int width;
+    private int height;
+    private int cols;
+    private int rows;
+    private int[] previous;
+    private boolean[] dirty;
+    private int dirtyCount;
+
+    TileEncoder() {
+        this(DEFAULT_TILE_SIZE);
+    }
+
+    TileEncoder(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Compares the frame against the previous one and marks changed tiles dirty.
+     * Returns false if there is no previous frame of the same size, in which case
+     * the caller has to send a keyframe.
+     */
+    boolean update(BufferedImage image) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int w = image.getWidth();
+        int h = image.getHeight();
+        if (previous == null || w != width || h != height) {
+            width = w;
+            height = h;
+            cols = (w + tileSize - 1) / tileSize;
+            rows = (h + tileSize - 1) / tileSize;
+            previous = pixels.clone();
+            dirty = new boolean[cols * rows];
+            dirtyCount = 0;
+            return false;
+        }
+        for (int ty = 0; ty < rows; ty++) {
+            for (int tx = 0; tx < cols; tx++) {
+                int i = ty * cols + tx;
+                if (!dirty[i] && tileChanged(pixels, tx * tileSize, ty * tileSize)) {
+                    dirty[i] = true;
+                    dirtyCount++;
+                }
+            }
+        }
+        System.arraycopy(pixels, 0, previous, 0, pixels.length);
+        return true;
+    }
+
+    /** Number of tiles changed since the last {@link #clear()}. */
+    int dirtyCount() {
+        return dirtyCount;
+    }
+
+    int tileCount() {
+        return cols * rows;
+    }
+
+    /** Forgets accumulated changes once the sender has picked up a record containing them. */
+    void clear() {
+        if (dirty != null) Arrays.fill(dirty, false);
+        dirtyCount = 0;
+    }
+
+    /** Encodes every dirty tile of the frame into one tile record. */
+    EncodedFrame encode(BufferedImage image, JpegEncoder jpeg) throws IOException {
+        FrameOutputStream out = jpeg.begin();
+        out.writeByte(RECORD_TILES);
+        out.writeByte(0);
+        out.writeShort(width);
+        out.writeShort(height);
+        out.writeShort(dirtyCount);
+        for (int ty = 0; ty < rows; ty++) {
+            for (int tx = 0; tx < cols; tx++) {
+                if (!dirty[ty * cols + tx]) continue;
+                int x = tx * tileSize;
+                int y = ty * tileSize;
+                out.writeShort(x);
+                out.writeShort(y);
+                long lengthPos = out.getStreamPosition();
+                out.writeInt(0); // patched once the tile is encoded
+                jpeg.writeJpeg(image.getSubimage(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+                long end = out.getStreamPosition();
+                out.seek(lengthPos);
+                out.writeInt((int) (end - lengthPos - 4));
+                out.seek(end);
+            }
+        }
+        return jpeg.finish();
+    }
+
+    private boolean tileChanged(int[] pixels, int x0, int y0) {
+        int x1 = Math.min(x0 + tileSize, width);
+        int y1 = Math.min(y0 + tileSize, height);
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            if (Arrays.mismatch(pixels, row + x0, row + x1, previous, row + x0, row + x1) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
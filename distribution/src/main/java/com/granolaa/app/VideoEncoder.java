@@ -0,0 +1,321 @@
+package com.granolaa.app;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.swscale;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.PointerPointer;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.function.LongSupplier;
+
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_alloc;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_free;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_unref;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_alloc_context3;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_find_encoder_by_name;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_free_context;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_open2;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_receive_packet;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_send_frame;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PICTURE_TYPE_I;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PICTURE_TYPE_NONE;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_BGR0;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_BGR24;
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.ffmpeg.global.avutil.av_dict_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_dict_set;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_alloc;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_free;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer;
+import static org.bytedeco.ffmpeg.global.avutil.av_frame_make_writable;
+import static org.bytedeco.ffmpeg.global.avutil.av_make_q;
+import static org.bytedeco.ffmpeg.global.swscale.SWS_POINT;
+import static org.bytedeco.ffmpeg.global.swscale.sws_freeContext;
+import static org.bytedeco.ffmpeg.global.swscale.sws_getCachedContext;
+import static org.bytedeco.ffmpeg.global.swscale.sws_scale;
+
+/**
+ * Per-stream H.264 encoder built on the bundled FFmpeg (software openh264, no
+ * B-frames). Each encoded frame yields one Annex B access unit, which goes out
+ * as a video record over the usual length-prefixed upload:
+ * <pre>
+ *   u8  RECORD_VIDEO
+ *   u8  flags (bit 0: keyframe, starts with SPS/PPS)
+ *   u8  codec (CODEC_H264)
+ *   u16 width, u16 height
+ *   Annex B NAL units
+ * </pre>
+ * The viewer decodes these with WebCodecs. Keyframes are scheduled here rather
+ * than by the encoder: one every {@value #KEYFRAME_INTERVAL_MS} ms, and one as soon
+ * as a record was lost, each forced on the running encoder by marking the input
+ * picture as an I-frame. openh264 cannot change its bitrate or frame rate while
+ * running, so a change of fps or quality waits for the next scheduled keyframe
+ * and restarts the encoder there, its IDR standing in for the scheduled one; only
+ * a change of frame size restarts it at once.
+ * Not thread-safe: each capture thread owns its encoder.
+ */
+final class VideoEncoder {
+
+    static final int RECORD_VIDEO = 0x02;
+    static final int CODEC_H264 = 1;
+    static final int FLAG_KEYFRAME = 0x01;
+
+    private static final int HEADER_SIZE = 7;
+    private static final String ENCODER = "libopenh264";
+    static final long KEYFRAME_INTERVAL_MS = 2000;
+    private static final double BITS_PER_PIXEL_AT_FULL_QUALITY = 0.2;
+
+    private final FramePool pool = new FramePool();
+    private final LongSupplier clock;
+    private AVCodecContext context;
+    private AVFrame picture;
+    private AVPacket packet;
+    private SwsContext scaler;
+    private BytePointer pixels;
+    private final PointerPointer<BytePointer> planes;
+    private final IntPointer strides;
+    private BufferedImage scratch;
+    private int width;
+    private int height;
+    private int fps;
+    private float quality;
+    private long startMicros;
+    private long lastPts;
+    private long lastKeyframeAt;
+    private boolean keyframeRequested;
+    private int restarts;
+
+    VideoEncoder() {
+        this(System::currentTimeMillis);
+    }
+
+    /** Schedules keyframes by the given millisecond clock (tests step it instead of sleeping). */
+    VideoEncoder(LongSupplier clock) {
+        this.clock = clock;
+        // Nothing else may have loaded FFmpeg yet, and the pointers below need it
+        Loader.load(avcodec.class);
+        Loader.load(swscale.class);
+        planes = new PointerPointer<>(1);
+        strides = new IntPointer(1);
+    }
+
+    /**
+     * Encodes the frame and publishes it. Video records depend on each other, so
+     * the slot must be used with take semantics; if the sender has not taken the
+     * previous record, it is lost when replaced and this one is made a keyframe.
+     */
+    void encodeInto(FrameSlot slot, BufferedImage image, StreamSettings settings) throws IOException {
+        if (!slot.isEmpty()) keyframeRequested = true;
+        EncodedFrame frame = encode(image, settings);
+        if (frame != null) slot.publish(frame);
+    }
+
+    /**
+     * Encodes one frame; the caller owns the returned record. Returns null if the
+     * encoder produced no output for this frame (e.g. it chose to skip it).
+     */
+    EncodedFrame encode(BufferedImage image, StreamSettings settings) throws IOException {
+        long now = clock.getAsLong();
+        boolean keyframeDue = now - lastKeyframeAt >= KEYFRAME_INTERVAL_MS;
+        boolean forceKeyframe = keyframeRequested || keyframeDue;
+        if (context == null || image.getWidth() != width || image.getHeight() != height
+                || (keyframeDue && (settings.getFps() != fps || settings.getQuality() != quality))) {
+            // A fresh encoder always starts with SPS/PPS and an IDR frame
+            restart(image.getWidth(), image.getHeight(), settings.getFps(), settings.getQuality());
+            forceKeyframe = false;
+        }
+        keyframeRequested = false;
+        convert(image);
+        long micros = System.nanoTime() / 1000 - startMicros;
+        lastPts = Math.max(micros, lastPts + 1);
+        picture.pts(lastPts);
+        picture.pict_type(forceKeyframe ? AV_PICTURE_TYPE_I : AV_PICTURE_TYPE_NONE);
+        int error = avcodec_send_frame(context, picture);
+        if (error < 0) throw new IOException("Video encoder rejected a frame (error " + error + ")");
+
+        EncodedFrame frame = null;
+        try {
+            // openh264 has no delay, so this is normally one access unit or none if it skipped
+            // the frame; anything more is appended so that no packet is lost
+            int offset = HEADER_SIZE;
+            while (avcodec_receive_packet(context, packet) >= 0) {
+                int size = packet.size();
+                if (frame == null) frame = pool.acquire();
+                frame.ensureCapacity(offset + size);
+                packet.data().position(0).get(frame.data, offset, size);
+                av_packet_unref(packet);
+                offset += size;
+            }
+            if (frame != null) finishHeader(frame, offset);
+        } catch (RuntimeException e) {
+            if (frame != null) frame.release();
+            throw e;
+        }
+        if (frame != null && frame.data[1] == FLAG_KEYFRAME) lastKeyframeAt = now;
+        return frame;
+    }
+
+    /** How many times the encoder has been started, for tests. */
+    int restarts() {
+        return restarts;
+    }
+
+    void dispose() {
+        stopEncoder();
+        if (scaler != null) sws_freeContext(scaler);
+        scaler = null;
+        if (pixels != null) pixels.close();
+        pixels = null;
+        planes.close();
+        strides.close();
+    }
+
+    private void restart(int w, int h, int frameRate, float q) throws IOException {
+        stopEncoder();
+        width = w;
+        height = h;
+        fps = frameRate;
+        quality = q;
+        AVCodec codec = avcodec_find_encoder_by_name(ENCODER);
+        if (codec == null) throw new IOException("No " + ENCODER + " encoder in the bundled FFmpeg");
+        // H.264 needs even dimensions; the odd last row/column is cropped before encoding
+        AVCodecContext c = avcodec_alloc_context3(codec);
+        c.width(w & ~1);
+        c.height(h & ~1);
+        c.pix_fmt(AV_PIX_FMT_YUV420P);
+        c.time_base(av_make_q(1, 1_000_000));
+        c.framerate(av_make_q(frameRate, 1));
+        c.gop_size(Integer.MAX_VALUE); // keyframes come from encode(), not from a fixed GOP
+        c.max_b_frames(0);
+        c.bit_rate((long) Math.max(50_000, w * h * frameRate * BITS_PER_PIXEL_AT_FULL_QUALITY * q));
+        AVDictionary options = new AVDictionary(null);
+        av_dict_set(options, "allow_skip_frames", "1", 0); // lets openh264 hold the bitrate; skipped frames yield no record
+        int error = avcodec_open2(c, codec, options);
+        av_dict_free(options);
+        if (error < 0) {
+            avcodec_free_context(c);
+            throw new IOException("Could not open " + ENCODER + " (error " + error + ")");
+        }
+        context = c;
+        picture = av_frame_alloc();
+        picture.format(AV_PIX_FMT_YUV420P);
+        picture.width(c.width());
+        picture.height(c.height());
+        av_frame_get_buffer(picture, 0);
+        packet = av_packet_alloc();
+        startMicros = System.nanoTime() / 1000;
+        lastPts = -1;
+        restarts++;
+    }
+
+    /**
+     * Copies the image's pixels to native memory and converts them into the
+     * encoder's YUV picture, cropping to its even size.
+     */
+    private void convert(BufferedImage image) throws IOException {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        BufferedImage source = packed(image);
+        int format;
+        int stride;
+        if (source.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            byte[] bgr = ((DataBufferByte) source.getRaster().getDataBuffer()).getData();
+            ensurePixels(bgr.length);
+            pixels.position(0).put(bgr, 0, bgr.length);
+            format = AV_PIX_FMT_BGR24;
+            stride = w * 3;
+        } else {
+            // TYPE_INT_RGB pixels, written little-endian, are B, G, R, unused in memory
+            int[] rgb = ((DataBufferInt) source.getRaster().getDataBuffer()).getData();
+            ensurePixels((long) rgb.length * 4);
+            pixels.position(0).asByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(rgb, 0, rgb.length);
+            format = AV_PIX_FMT_BGR0;
+            stride = w * 4;
+        }
+        int codedWidth = context.width();
+        int codedHeight = context.height();
+        scaler = sws_getCachedContext(scaler, codedWidth, codedHeight, format, codedWidth, codedHeight,
+                AV_PIX_FMT_YUV420P, SWS_POINT, null, null, (DoublePointer) null);
+        if (scaler == null || av_frame_make_writable(picture) < 0) {
+            throw new IOException("Cannot convert a " + w + "x" + h + " frame for the video encoder");
+        }
+        planes.put(0, pixels.position(0));
+        strides.put(0, stride);
+        sws_scale(scaler, planes, strides, 0, codedHeight, picture.data(), picture.linesize());
+    }
+
+    /**
+     * The image itself if its pixels sit in one unshared BGR or RGB array,
+     * otherwise a copy drawn into a reused TYPE_INT_RGB image.
+     */
+    private BufferedImage packed(BufferedImage image) {
+        int type = image.getType();
+        int pixelsPerElement = type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 1;
+        if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_INT_RGB)
+                && image.getRaster().getParent() == null
+                && image.getRaster().getDataBuffer().getSize() == image.getWidth() * image.getHeight() * pixelsPerElement) {
+            return image;
+        }
+        if (scratch == null || scratch.getWidth() != image.getWidth() || scratch.getHeight() != image.getHeight()) {
+            scratch = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D g = scratch.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return scratch;
+    }
+
+    private void ensurePixels(long bytes) {
+        if (pixels != null && pixels.capacity() >= bytes) return;
+        if (pixels != null) pixels.close();
+        pixels = new BytePointer(bytes);
+    }
+
+    private void stopEncoder() {
+        if (context == null) return;
+        avcodec_free_context(context);
+        av_frame_free(picture);
+        av_packet_free(packet);
+        context = null;
+        picture = null;
+        packet = null;
+    }
+
+    private void finishHeader(EncodedFrame frame, int size) {
+        byte[] d = frame.data;
+        d[0] = (byte) RECORD_VIDEO;
+        d[1] = (byte) (containsIdr(d, HEADER_SIZE, size) ? FLAG_KEYFRAME : 0);
+        d[2] = (byte) CODEC_H264;
+        int codedWidth = width & ~1;
+        int codedHeight = height & ~1;
+        d[3] = (byte) (codedWidth >>> 8);
+        d[4] = (byte) codedWidth;
+        d[5] = (byte) (codedHeight >>> 8);
+        d[6] = (byte) codedHeight;
+        frame.setLength(size);
+    }
+
+    /** Looks for an IDR slice (NAL type 5) after any 00 00 01 start code. */
+    static boolean containsIdr(byte[] d, int from, int to) {
+        for (int i = from; i + 3 < to; i++) {
+            if (d[i] == 0 && d[i + 1] == 0 && d[i + 2] == 1 && (d[i + 3] & 0x1F) == 5) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,39 @@
+package com.granolaa.app;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factory for large numbers of mostly-blocked threads. Uses virtual
+ * threads when the runtime has them (JDK 21+; looked up reflectively because the
+ * build targets 17), and daemon platform threads with a small stack otherwise.
+ */
+final class VirtualThreads {
+
+    private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+    private static final ThreadFactory VIRTUAL = lookupVirtual();
+
+    private VirtualThreads() {
+    }
+
+    static boolean available() {
+        return VIRTUAL != null;
+    }
+
+    static ThreadFactory factory() {
+        if (VIRTUAL != null) return VIRTUAL;
+        return task -> {
+            Thread thread = new Thread(null, task, "load", PLATFORM_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ThreadFactory lookupVirtual() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // JDK 17, or 19/20 without --enable-preview
+        }
+    }
+}
@@ -2,45 +2,81 @@ package com.granolaa.app;
 
 import com.github.sarxos.webcam.Webcam;
 import com.github.sarxos.webcam.WebcamResolution;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.Java2DFrameUtils;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.bytedeco.javacv.OpenCVFrameGrabber;
+import org.bytedeco.opencv.opencv_core.Mat;
 
-import javax.imageio.ImageIO;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.util.concurrent.atomic.AtomicReference;
+import java.nio.ByteBuffer;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_RGB2BGR;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvtColor;
 
 /**
  * Captures from the default webcam at a fixed rate and holds the latest JPEG
  * frame for MJPEG streaming. On macOS (x86_64 and aarch64) uses JavaCV
  * (OpenCV) because sarxos webcam-capture often fails there.
+ * <p>
+ * JavaCV frames are handed over as OpenCV Mats (see {@link FrameSource#grabMat()})
+ * without a copy, so plain JPEG streams are scaled and encoded natively. Sarxos
+ * cameras stay on Java images by default, so they never load OpenCV; with
+ * -Dwebcam.native=true their frames are read as raw RGB bytes into one direct
+ * buffer and converted to BGR by OpenCV instead. -Dwebcam.native=false goes back
+ * to Java images for JavaCV too.
+ * <p>
+ * -Dwebcam.device selects a camera by index or plays a video file instead, in a
+ * loop, through the JavaCV path on any system.
+ * <p>
+ * Supports the H.264 codec setting (see {@link FrameSource}).
  */
-public class WebcamCapture implements Runnable {
+public class WebcamCapture extends FrameSource {
 
     private static final int DEFAULT_FPS = 5;
     private static final int CAPTURE_WIDTH = 640;
     private static final int CAPTURE_HEIGHT = 480;
 
-    private final AtomicReference<byte[]> latestFrame = new AtomicReference<>(new byte[0]);
-    private volatile boolean running = true;
-    private final int fps;
+    /** "true", "false", or unset for native frames only where OpenCV is loaded anyway. */
+    private final String nativeFrames = System.getProperty("webcam.native", "").trim();
+    private final String device;
+    private FrameGrabber grabber;
+    private Java2DFrameConverter converter;
+    private OpenCVFrameConverter.ToMat toMat;
+    private Webcam webcam;
+    private ByteBuffer rgb;
+    private Mat rgbMat;
+    private Mat bgrMat;
 
     public WebcamCapture() {
         this(DEFAULT_FPS);
     }
 
     public WebcamCapture(int fps) {
-        this.fps = fps;
+        this(new StreamSettings(fps, 1.0, StreamSettings.DEFAULT_QUALITY));
+    }
+
+    public WebcamCapture(StreamSettings settings) {
+        this(settings, System.getProperty("webcam.device", "").trim());
     }
 
-    public byte[] getLatestFrame() {
-        return latestFrame.get();
+    /**
+     * Captures from {@code device}: a camera index or a video file for JavaCV,
+     * or empty for the default camera of the system's usual backend.
+     */
+    WebcamCapture(StreamSettings settings, String device) {
+        super("webcam", settings, false);
+        this.device = device;
     }
 
-    public void stop() {
-        running = false;
+    /** Settings read on every frame (default {@value #DEFAULT_FPS} fps at full VGA size). */
+    public static StreamSettings defaultSettings() {
+        return StreamSettings.fromProperties("webcam", DEFAULT_FPS, 1.0);
     }
 
     private static boolean isMacOs() {
@@ -49,91 +85,100 @@ public class WebcamCapture implements Runnable {
     }
 
     @Override
-    public void run() {
-        if (isMacOs()) {
-            runMacOs();
-        } else {
-            runSarxos();
-        }
-    }
-
-    /** Webcam capture on macOS using JavaCV (works on x86_64 and aarch64). */
-    private void runMacOs() {
-        OpenCVFrameGrabber grabber = null;
-        try {
-            grabber = new OpenCVFrameGrabber(0);
+    protected boolean open() throws Exception {
+        if (!device.isEmpty() && !device.chars().allMatch(Character::isDigit)) {
+            grabber = new FFmpegFrameGrabber(device);
+        } else if (!device.isEmpty() || isMacOs()) {
+            // JavaCV works on macOS x86_64 and aarch64
+            grabber = new OpenCVFrameGrabber(device.isEmpty() ? 0 : Integer.parseInt(device));
             grabber.setImageWidth(CAPTURE_WIDTH);
             grabber.setImageHeight(CAPTURE_HEIGHT);
+        }
+        if (grabber != null) {
+            // One converter for the whole session: it reuses its BufferedImage between frames
+            converter = new Java2DFrameConverter();
+            toMat = new OpenCVFrameConverter.ToMat();
             grabber.start();
+            return true;
+        }
+        // sarxos webcam-capture on Windows/Linux
+        webcam = Webcam.getDefault();
+        if (webcam == null) {
+            System.err.println("No webcam found. Webcam stream will be unavailable.");
+            return false;
+        }
+        Dimension size = WebcamResolution.VGA.getSize();
+        webcam.setViewSize(size);
+        webcam.open();
+        return true;
+    }
 
-            long intervalMs = 1000L / Math.max(1, fps);
-
-            while (running) {
-                long start = System.currentTimeMillis();
-                Frame frame = grabber.grab();
-                if (frame != null && frame.image != null) {
-                    BufferedImage image = Java2DFrameUtils.toBufferedImage(frame);
-                    if (image != null) {
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        ImageIO.write(image, "jpg", baos);
-                        latestFrame.set(baos.toByteArray());
-                    }
-                }
-
-                long elapsed = System.currentTimeMillis() - start;
-                long sleep = Math.max(0, intervalMs - elapsed);
-                if (sleep > 0) {
-                    Thread.sleep(sleep);
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Webcam capture error (macOS): " + e.getMessage());
-        } finally {
-            if (grabber != null) {
-                try {
-                    grabber.stop();
-                } catch (Exception ignored) {
-                }
-            }
+    @Override
+    protected boolean grabsMats() {
+        return nativeFrames.isEmpty() ? grabber != null : Boolean.parseBoolean(nativeFrames);
+    }
+
+    @Override
+    protected Mat grabMat() throws Exception {
+        if (grabber != null) {
+            Frame frame = nextFrame();
+            // Frames from the grabbers are BGR already; the Mat shares their memory
+            return frame != null ? toMat.convert(frame) : null;
+        }
+        if (!webcam.isOpen()) {
+            stop();
+            return null;
         }
+        Dimension size = webcam.getViewSize();
+        if (rgbMat == null || rgbMat.cols() != size.width || rgbMat.rows() != size.height) {
+            if (rgbMat != null) rgbMat.close();
+            rgb = ByteBuffer.allocateDirect(size.width * size.height * 3);
+            rgbMat = new Mat(size.height, size.width, CV_8UC3, new BytePointer(rgb));
+            if (bgrMat == null) bgrMat = new Mat();
+        }
+        rgb.clear();
+        webcam.getImageBytes(rgb);
+        cvtColor(rgbMat, bgrMat, COLOR_RGB2BGR);
+        return bgrMat;
     }
 
-    /** Webcam capture on Windows/Linux using sarxos webcam-capture. */
-    private void runSarxos() {
-        Webcam webcam = null;
-        try {
-            webcam = Webcam.getDefault();
-            if (webcam == null) {
-                System.err.println("No webcam found. Webcam stream will be unavailable.");
-                return;
-            }
-            Dimension size = WebcamResolution.VGA.getSize();
-            webcam.setViewSize(size);
-            webcam.open();
-
-            long intervalMs = 1000L / Math.max(1, fps);
-
-            while (running && webcam.isOpen()) {
-                long start = System.currentTimeMillis();
-                BufferedImage image = webcam.getImage();
-                if (image != null) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    ImageIO.write(image, "jpg", baos);
-                    latestFrame.set(baos.toByteArray());
-                }
-
-                long elapsed = System.currentTimeMillis() - start;
-                long sleep = Math.max(0, intervalMs - elapsed);
-                if (sleep > 0) {
-                    Thread.sleep(sleep);
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Webcam capture error: " + e.getMessage());
-        } finally {
-            if (webcam != null && webcam.isOpen()) {
-                webcam.close();
+    @Override
+    protected BufferedImage grab() throws Exception {
+        if (grabber != null) {
+            Frame frame = nextFrame();
+            return frame != null ? converter.convert(frame) : null;
+        }
+        if (!webcam.isOpen()) {
+            stop();
+            return null;
+        }
+        return webcam.getImage();
+    }
+
+    /** Next video frame from the grabber, or null; a video file starts over at its end. */
+    private Frame nextFrame() throws FrameGrabber.Exception {
+        Frame frame = grabber.grab();
+        if (frame == null && grabber instanceof FFmpegFrameGrabber) {
+            grabber.restart();
+            frame = grabber.grab();
+        }
+        return frame != null && frame.image != null ? frame : null;
+    }
+
+    @Override
+    protected void close() {
+        if (converter != null) converter.close();
+        if (toMat != null) toMat.close();
+        if (rgbMat != null) rgbMat.close();
+        if (bgrMat != null) bgrMat.close();
+        if (grabber != null) {
+            try {
+                grabber.stop();
+            } catch (Exception ignored) {
             }
         }
+        if (webcam != null && webcam.isOpen()) {
+            webcam.close();
+        }
     }
 }
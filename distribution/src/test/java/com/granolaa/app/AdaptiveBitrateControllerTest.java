@@ -0,0 +1,50 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks the step-down / step-up order of the adaptive controller.
+ */
+public class AdaptiveBitrateControllerTest {
+
+    @Test
+    public void congestionLowersQualityThenFpsThenScale() {
+        StreamSettings settings = new StreamSettings(6, 0.5, 0.6f);
+        AdaptiveBitrateController controller = new AdaptiveBitrateController("test", settings);
+
+        long now = 10_000;
+        controller.recordSend(1000, now);
+        assertEquals(0.45f, settings.getQuality(), 0.001f);
+
+        controller.recordSend(1000, now += 500); // inside the cooldown
+        assertEquals(0.45f, settings.getQuality(), 0.001f);
+
+        controller.recordFailure(now += 1000);
+        assertEquals(0.3f, settings.getQuality(), 0.001f);
+        controller.recordFailure(now += 1000);
+        assertEquals(4, settings.getFps());
+        controller.recordFailure(now += 1000);
+        controller.recordFailure(now += 1000);
+        assertEquals(1, settings.getFps());
+        controller.recordFailure(now += 1000);
+        assertEquals(0.4, settings.getScale(), 0.001);
+    }
+
+    @Test
+    public void recoveryRaisesBackToConfiguredSettings() {
+        StreamSettings settings = new StreamSettings(6, 0.5, 0.6f);
+        AdaptiveBitrateController controller = new AdaptiveBitrateController("test", settings);
+
+        long now = 10_000;
+        for (int i = 0; i < 4; i++) controller.recordFailure(now += 1000);
+        assertEquals(0.3f, settings.getQuality(), 0.001f);
+        assertEquals(2, settings.getFps());
+
+        for (int i = 0; i < 200; i++) controller.recordSend(10, now += 500);
+        assertEquals(6, settings.getFps());
+        assertEquals(0.5, settings.getScale(), 0.001);
+        assertEquals(0.6f, settings.getQuality(), 0.001f);
+    }
+}
@@ -0,0 +1,26 @@
+package com.granolaa.app;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Synthetic source images for the JMH benchmarks, so they run headless.
+ */
+final class BenchmarkFrames {
+
+    private BenchmarkFrames() {
+    }
+
+    /** Renders the first frame of the pattern at a "WIDTHxHEIGHT" resolution. */
+    static BufferedImage render(String resolution, SyntheticSource.Pattern pattern) {
+        return source(resolution, pattern).grab();
+    }
+
+    /** An opened synthetic source; each grab() returns the next frame in the same image. */
+    static SyntheticSource source(String resolution, SyntheticSource.Pattern pattern) {
+        String[] parts = resolution.split("x");
+        SyntheticSource source = new SyntheticSource("bench", new StreamSettings(30, 1.0, StreamSettings.DEFAULT_QUALITY),
+                false, pattern, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), 1);
+        source.open();
+        return source;
+    }
+}
@@ -0,0 +1,167 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Simulates an outage on the live sender and checks the thinned catch-up that follows it.
+ */
+public class CatchUpUploadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final List<Long> capturedAt = new CopyOnWriteArrayList<>();
+    /** Like the relay, the stub refuses catch-up frames (403) until the client has streamed live. */
+    private final AtomicBoolean known = new AtomicBoolean(true);
+    private final AtomicInteger rejected = new AtomicInteger();
+    private volatile boolean running = true;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/stream/catchup", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                ByteBuffer record = ByteBuffer.wrap(in.readAllBytes());
+                assertEquals(FrameHeader.RECORD_TIMED, record.get(4));
+                if (!known.get()) {
+                    rejected.incrementAndGet();
+                    exchange.sendResponseHeaders(403, -1);
+                    exchange.close();
+                    return;
+                }
+                capturedAt.add(record.getLong(4 + 8));
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        running = false;
+        server.stop(0);
+    }
+
+    @Test
+    public void uploadsThinnedOutageOnceLiveSendsResume() throws Exception {
+        FrameSpool spool = new FrameSpool(folder.getRoot().toPath().resolve("screen.spool"), 1 << 20);
+        AtomicBoolean liveIdle = new AtomicBoolean(false);
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/stream/catchup?clientId=c&stream=screen";
+        CatchUpUpload catchUp = new CatchUpUpload(StreamClient.newHttpClient(), url, "screen", spool,
+                liveIdle::get, () -> running, 2000, 1);
+        Thread thread = new Thread(catchUp::run);
+        thread.start();
+
+        catchUp.onSent(100, 1);
+        long now = System.currentTimeMillis();
+        // 5 s of frames at 5 fps, within the slack before the last successful send
+        for (int i = 1; i <= 25; i++) {
+            EncodedFrame frame = EncodedFrame.wrap(new byte[] {(byte) 0xFF, (byte) i});
+            frame.sequence = i;
+            frame.capturedAtMillis = now - 4900 + i * 200L;
+            spool.append(frame);
+        }
+        Thread.sleep(200);
+        assertTrue(capturedAt.isEmpty()); // no outage yet
+
+        catchUp.onFailure();
+        catchUp.onFailure();
+        catchUp.onSent(100, 1); // back: the outage is over
+        Thread.sleep(300);
+        assertTrue(capturedAt.isEmpty()); // the live sender still has a frame waiting
+
+        liveIdle.set(true);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (capturedAt.size() < 3 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        running = false;
+        thread.join(3000);
+
+        assertEquals(3, capturedAt.size()); // 5 s thinned to one frame per 2 s
+        assertEquals(Arrays.asList(now - 4700, now - 2700, now - 700), capturedAt);
+    }
+
+    @Test
+    public void uploadsOutageLeftOverByTheLastRun() throws Exception {
+        FrameSpool spool = new FrameSpool(folder.getRoot().toPath().resolve("screen.spool"), 1 << 20);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 5; i++) {
+            EncodedFrame frame = EncodedFrame.wrap(new byte[] {(byte) 0xFF, (byte) i});
+            frame.capturedAtMillis = now - 60_000 + i * 1000L;
+            spool.append(frame);
+        }
+        spool.setPendingFrom(now - 57_500); // the last run went down during its outage
+
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/stream/catchup?clientId=c&stream=screen";
+        CatchUpUpload catchUp = new CatchUpUpload(StreamClient.newHttpClient(), url, "screen", spool,
+                () -> true, () -> running, 1000, 1);
+        Thread thread = new Thread(catchUp::run);
+        thread.start();
+        catchUp.onSent(100, 1); // the first live frame went out
+        long deadline = System.currentTimeMillis() + 5000;
+        while (spool.pendingFrom() != 0 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        running = false;
+        thread.join(3000);
+
+        assertEquals(Arrays.asList(now - 57_000, now - 56_000, now - 55_000), capturedAt);
+        assertEquals(0, spool.pendingFrom());
+    }
+
+    @Test
+    public void keepsLeftOverOutageUntilTheRelayTakesIt() throws Exception {
+        known.set(false);
+        FrameSpool spool = new FrameSpool(folder.getRoot().toPath().resolve("screen.spool"), 1 << 20);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 5; i++) {
+            EncodedFrame frame = EncodedFrame.wrap(new byte[] {(byte) 0xFF, (byte) i});
+            frame.capturedAtMillis = now - 60_000 + i * 1000L;
+            spool.append(frame);
+        }
+        spool.setPendingFrom(now - 57_500);
+
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/stream/catchup?clientId=c&stream=screen";
+        CatchUpUpload catchUp = new CatchUpUpload(StreamClient.newHttpClient(), url, "screen", spool,
+                () -> true, () -> running, 1000, 1);
+        Thread thread = new Thread(catchUp::run);
+        thread.start();
+        Thread.sleep(300);
+        assertEquals(0, rejected.get()); // nothing goes out before a live frame has
+        assertEquals(now - 57_500, spool.pendingFrom());
+
+        catchUp.onSent(100, 1); // live, but the relay has not seen it yet (it restarted, say)
+        long deadline = System.currentTimeMillis() + 5000;
+        while (rejected.get() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        Thread.sleep(100);
+        assertEquals(1, rejected.get());
+        assertEquals(now - 57_000, spool.pendingFrom()); // resumes at the refused frame
+
+        known.set(true);
+        catchUp.onSent(100, 1);
+        deadline = System.currentTimeMillis() + 5000;
+        while (spool.pendingFrom() != 0 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        running = false;
+        thread.join(3000);
+
+        assertEquals(Arrays.asList(now - 57_000, now - 56_000, now - 55_000), capturedAt);
+        assertEquals(0, spool.pendingFrom());
+    }
+}
@@ -0,0 +1,130 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * Checks which frames the change detector lets through to the encoder.
+ */
+public class ChangeDetectorTest {
+
+    @Test
+    public void idleFramesWaitForTheKeepAlive() {
+        ChangeDetector detector = new ChangeDetector(2, 2000);
+        BufferedImage page = BenchmarkFrames.render("1280x720", SyntheticSource.Pattern.STATIC);
+
+        assertTrue(detector.shouldEncode(page, 10_000));
+        assertFalse(detector.shouldEncode(page, 10_200));
+        assertFalse(detector.shouldEncode(page, 11_900));
+        assertTrue(detector.shouldEncode(page, 12_000));
+        assertTrue(detector.wasKeepAlive());
+        assertFalse(detector.shouldEncode(page, 12_200));
+    }
+
+    @Test
+    public void typingOneCharacterIsAChange() {
+        ChangeDetector detector = new ChangeDetector(2, 2000);
+        BufferedImage page = BenchmarkFrames.render("1920x1080", SyntheticSource.Pattern.STATIC);
+        detector.shouldEncode(page, 0);
+
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(700, 500, 5, 12);
+        g.dispose();
+
+        assertTrue(detector.shouldEncode(page, 100));
+        assertFalse(detector.wasKeepAlive());
+    }
+
+    @Test
+    public void movingAOnePixelLineAtAnOddColumnIsAChange() {
+        ChangeDetector detector = new ChangeDetector(2, 2000);
+        BufferedImage frame = new BufferedImage(1280, 720, BufferedImage.TYPE_INT_RGB);
+        fill(frame, 0xFFFFFF);
+        detector.shouldEncode(frame, 0);
+
+        for (int y = 0; y < 720; y++) frame.setRGB(641, y, 0);
+        assertTrue(detector.shouldEncode(frame, 100));
+
+        for (int y = 0; y < 720; y++) {
+            frame.setRGB(641, y, 0xFFFFFF);
+            frame.setRGB(661, y, 0); // the next cell over
+        }
+        assertTrue(detector.shouldEncode(frame, 200));
+        assertFalse(detector.wasKeepAlive());
+    }
+
+    @Test
+    public void movingAOnePixelLineInAWebcamFrameIsAChange() {
+        ChangeDetector detector = new ChangeDetector(2, 2000);
+        BufferedImage frame = new BufferedImage(1280, 720, BufferedImage.TYPE_3BYTE_BGR);
+        fill(frame, 0xFFFFFF);
+        detector.shouldEncode(frame, 0);
+        assertFalse(detector.shouldEncode(frame, 100));
+
+        for (int y = 0; y < 720; y++) frame.setRGB(641, y, 0);
+        assertTrue(detector.shouldEncode(frame, 200));
+        assertFalse(detector.wasKeepAlive());
+    }
+
+    @Test
+    public void byteFramesReadTheSameColoursAsIntFrames() {
+        ChangeDetector detector = new ChangeDetector(0, 2000);
+        BufferedImage ints = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        BufferedImage bgr = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage abgr = new BufferedImage(320, 240, BufferedImage.TYPE_4BYTE_ABGR);
+        for (BufferedImage image : new BufferedImage[] {ints, bgr, abgr}) fill(image, 0x2040F0);
+
+        detector.shouldEncode(ints, 0);
+        // Red and blue read the wrong way round would move every cell's luminance
+        assertFalse(detector.shouldEncode(bgr, 100));
+        assertFalse(detector.shouldEncode(abgr, 200));
+    }
+
+    @Test
+    public void sensorNoiseIsNotAChange() {
+        ChangeDetector detector = new ChangeDetector(2, 2000);
+        BufferedImage frame = new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR);
+        fill(frame, 0x606060);
+        detector.shouldEncode(frame, 0);
+
+        // One level of jitter on a scattering of pixels
+        for (int i = 0; i < 5000; i++) {
+            frame.setRGB((i * 7919) % 640, (i * 104729) % 480, 0x616161);
+        }
+
+        assertFalse(detector.shouldEncode(frame, 100));
+    }
+
+    @Test
+    public void resizedFramesAreAlwaysEncoded() {
+        ChangeDetector detector = new ChangeDetector(2, 2000);
+        detector.shouldEncode(new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB), 0);
+
+        assertTrue(detector.shouldEncode(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB), 100));
+    }
+
+    @Test
+    public void negativeThresholdTurnsTheGateOff() {
+        System.setProperty("gatetest.change.threshold", "-1");
+        try {
+            assertNull(ChangeDetector.fromProperties("gatetest"));
+        } finally {
+            System.clearProperty("gatetest.change.threshold");
+        }
+    }
+
+    private static void fill(BufferedImage image, int rgb) {
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(rgb));
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+    }
+}
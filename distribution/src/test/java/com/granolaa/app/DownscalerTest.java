@@ -0,0 +1,115 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * Checks the integer downscaler against exact averages and against Graphics2D.
+ */
+public class DownscalerTest {
+
+    @Test
+    public void halvingAveragesBlocks() {
+        BufferedImage src = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+        src.setRGB(0, 0, 0x000000);
+        src.setRGB(1, 0, 0xFF0000);
+        src.setRGB(0, 1, 0x00FF00);
+        src.setRGB(1, 1, 0x0000FF);
+        src.setRGB(2, 0, 0x101010);
+        src.setRGB(3, 0, 0x101010);
+        src.setRGB(2, 1, 0x303030);
+        src.setRGB(3, 1, 0x303030);
+
+        BufferedImage scaled = new Downscaler().scale(src, 2, 1);
+
+        assertEquals(0x404040, scaled.getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(0x202020, scaled.getRGB(1, 0) & 0xFFFFFF);
+    }
+
+    @Test
+    public void areaAveragingKeepsFlatColours() {
+        BufferedImage src = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = src.createGraphics();
+        g.setColor(new java.awt.Color(0x3C7AB4));
+        g.fillRect(0, 0, 300, 200);
+        g.dispose();
+
+        BufferedImage scaled = new Downscaler().scale(src, 225, 150);
+
+        for (int y = 0; y < 150; y++) {
+            for (int x = 0; x < 225; x++) {
+                assertEquals(0x3C7AB4, scaled.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void closeToBilinearDrawing() {
+        BufferedImage src = BenchmarkFrames.render("640x360", SyntheticSource.Pattern.SCROLLING);
+        for (int[] size : new int[][] {{320, 180}, {480, 270}, {160, 90}}) {
+            BufferedImage expected = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = expected.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(src, 0, 0, size[0], size[1], null);
+            g.dispose();
+
+            BufferedImage actual = new Downscaler().scale(src, size[0], size[1]);
+
+            assertTrue("mean error at " + size[0] + "x" + size[1], meanError(expected, actual) < 12);
+        }
+    }
+
+    @Test
+    public void rowRangesMatchTheFullScale() {
+        BufferedImage src = BenchmarkFrames.render("640x360", SyntheticSource.Pattern.NOISE);
+        BufferedImage full = copy(new Downscaler().scale(src, 480, 270));
+        Downscaler strips = new Downscaler();
+
+        BufferedImage part = strips.scale(src, 480, 270, 96, 48);
+
+        assertEquals(48, part.getHeight());
+        for (int y = 0; y < 48; y++) {
+            for (int x = 0; x < 480; x++) {
+                assertEquals(full.getRGB(x, 96 + y), part.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void readsSubimages() {
+        BufferedImage src = BenchmarkFrames.render("640x360", SyntheticSource.Pattern.NOISE);
+        BufferedImage region = src.getSubimage(100, 50, 200, 100);
+
+        BufferedImage viaSubimage = copy(new Downscaler().scale(region, 100, 50));
+        BufferedImage viaCopy = new Downscaler().scale(copy(region), 100, 50);
+
+        assertEquals(0.0, meanError(viaCopy, viaSubimage), 0.0);
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        copy.getGraphics().drawImage(image, 0, 0, null);
+        return copy;
+    }
+
+    /** Mean absolute difference per channel. */
+    private static double meanError(BufferedImage a, BufferedImage b) {
+        long total = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    total += Math.abs(((p >> shift) & 0xFF) - ((q >> shift) & 0xFF));
+                }
+            }
+        }
+        return total / (3.0 * a.getWidth() * a.getHeight());
+    }
+}
@@ -0,0 +1,98 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import org.junit.Test;
+
+/**
+ * Checks the timing header layout and the times stamped on published frames.
+ */
+public class FrameHeaderTest {
+
+    private static final byte[] PAYLOAD = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3};
+
+    @Test
+    public void timedRecordCarriesSequenceAndTimes() throws IOException {
+        EncodedFrame frame = EncodedFrame.wrap(PAYLOAD);
+        frame.sequence = 7;
+        frame.capturedAtMillis = 1_700_000_000_123L;
+        frame.encodeMicros = 4500;
+
+        Buffer sink = new Buffer();
+        FrameHeader.writeRecord(sink, frame, true);
+        assertEquals(4 + FrameHeader.SIZE + PAYLOAD.length, sink.size());
+
+        assertEquals(FrameHeader.SIZE + PAYLOAD.length, sink.readInt());
+        assertEquals(FrameHeader.RECORD_TIMED, sink.readByte());
+        assertEquals(FrameHeader.VERSION, sink.readByte());
+        assertEquals(FrameHeader.SIZE, sink.readShort());
+        assertEquals(7, sink.readInt());
+        assertEquals(1_700_000_000_123L, sink.readLong());
+        assertEquals(4500, sink.readInt());
+        assertArrayEquals(PAYLOAD, sink.readByteArray());
+    }
+
+    @Test
+    public void frameWithoutCaptureTimeGoesOutBare() throws IOException {
+        EncodedFrame frame = EncodedFrame.wrap(PAYLOAD);
+
+        Buffer sink = new Buffer();
+        FrameHeader.writeRecord(sink, frame, true);
+        assertEquals(4 + PAYLOAD.length, FrameHeader.wireLength(frame));
+        assertEquals(PAYLOAD.length, sink.readInt());
+        assertArrayEquals(PAYLOAD, sink.readByteArray());
+    }
+
+    @Test
+    public void slotStampsCaptureAndEncodeTimes() throws InterruptedException {
+        FrameSlot slot = new FrameSlot();
+        long captured = System.currentTimeMillis();
+        slot.capturing(captured, System.nanoTime() - 3_000_000);
+        slot.publish(new FramePool().acquire());
+
+        EncodedFrame frame = slot.awaitNewer(0, 10);
+        assertEquals(captured, frame.capturedAtMillis);
+        assertTrue(frame.encodeMicros >= 3000);
+        frame.release();
+    }
+
+    @Test
+    public void prebuiltRecordsAreStampedWhenPublished() throws InterruptedException {
+        FrameSlot slot = new FrameSlot();
+        long before = System.currentTimeMillis();
+        slot.publish(new FramePool().acquire());
+
+        EncodedFrame frame = slot.awaitNewer(0, 10);
+        assertTrue(frame.capturedAtMillis >= before);
+        assertEquals(FrameHeader.SIZE, FrameHeader.size(frame, true));
+        frame.release();
+    }
+
+    @Test
+    public void liveRecordsCarryTheHeaderByDefault() throws IOException {
+        EncodedFrame frame = EncodedFrame.wrap(PAYLOAD);
+        frame.capturedAtMillis = 1_700_000_000_123L;
+
+        Buffer sink = new Buffer();
+        FrameHeader.writeRecord(sink, frame); // -Dframe.header is not set in tests
+        assertEquals(4 + FrameHeader.SIZE + PAYLOAD.length, FrameHeader.wireLength(frame));
+        assertEquals(FrameHeader.SIZE + PAYLOAD.length, sink.readInt());
+        assertEquals(FrameHeader.RECORD_TIMED, sink.readByte());
+    }
+
+    @Test
+    public void recordsGoOutBareWhenTurnedOff() throws IOException {
+        EncodedFrame frame = EncodedFrame.wrap(PAYLOAD);
+        frame.capturedAtMillis = 1_700_000_000_123L;
+
+        Buffer sink = new Buffer();
+        FrameHeader.writeRecord(sink, frame, false);
+        assertEquals(PAYLOAD.length, sink.readInt());
+        assertArrayEquals(PAYLOAD, sink.readByteArray());
+    }
+}
@@ -0,0 +1,53 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Checks sequence numbering and wake-up of the capture-to-sender handoff.
+ */
+public class FrameSlotTest {
+
+    @Test
+    public void publishedFramesAreNumbered() throws InterruptedException {
+        FrameSlot slot = new FrameSlot();
+        FramePool pool = new FramePool();
+        slot.publish(pool.acquire());
+        slot.publish(pool.acquire());
+
+        EncodedFrame frame = slot.awaitNewer(0, 10);
+        assertEquals(2, frame.sequence);
+        frame.release();
+        assertNull(slot.awaitNewer(2, 10)); // never handed out twice
+    }
+
+    @Test
+    public void waitingSenderWakesOnPublish() throws InterruptedException {
+        FrameSlot slot = new FrameSlot();
+        EncodedFrame published = new FramePool().acquire();
+        Thread capture = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            slot.publish(published);
+        });
+        capture.start();
+
+        EncodedFrame frame = slot.awaitNewer(0, 5000);
+        assertSame(published, frame);
+        capture.join();
+    }
+
+    @Test
+    public void takeEmptiesTheSlot() throws InterruptedException {
+        FrameSlot slot = new FrameSlot();
+        slot.publish(new FramePool().acquire());
+        EncodedFrame taken = slot.awaitTake(10);
+        assertEquals(1, taken.sequence);
+        assertNull(slot.awaitTake(10));
+    }
+}
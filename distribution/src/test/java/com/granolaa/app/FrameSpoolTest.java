@@ -0,0 +1,122 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Spools frames into a small ring and reads them back, across the wrap, after being
+ * overwritten and after the spool is opened again.
+ */
+public class FrameSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static EncodedFrame frame(long sequence, long capturedAt, int size) {
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, (byte) sequence);
+        EncodedFrame frame = EncodedFrame.wrap(payload);
+        frame.sequence = sequence;
+        frame.capturedAtMillis = capturedAt;
+        frame.encodeMicros = 42;
+        return frame;
+    }
+
+    private FrameSpool spool(int capacity) throws IOException {
+        return new FrameSpool(folder.getRoot().toPath().resolve("screen.spool"), capacity);
+    }
+
+    @Test
+    public void rejectsRingSizesThatCannotBeMapped() {
+        System.setProperty("spool.dir", folder.getRoot().getPath());
+        try {
+            for (String mb : new String[] {"0", "-1", "2048"}) {
+                System.setProperty("spool.mb", mb);
+                try {
+                    FrameSpool.fromProperties("screen");
+                    fail(mb);
+                } catch (IllegalArgumentException e) {
+                    assertTrue(e.getMessage(),
+                            e.getMessage().startsWith("-Dspool.mb must be 1 to " + FrameSpool.MAX_MB));
+                }
+            }
+        } finally {
+            System.clearProperty("spool.dir");
+            System.clearProperty("spool.mb");
+        }
+    }
+
+    @Test
+    public void readsBackWhatWasAppended() throws IOException {
+        FrameSpool spool = spool(1000);
+        spool.append(frame(1, 5000, 100));
+        spool.append(frame(2, 5100, 200));
+
+        EncodedFrame second = spool.read(2);
+        assertEquals(200, second.length);
+        assertEquals(5100, second.capturedAtMillis);
+        assertEquals(42, second.encodeMicros);
+        assertArrayEquals(frame(2, 0, 200).toByteArray(), second.toByteArray());
+        assertNull(spool.read(3));
+    }
+
+    @Test
+    public void framesSurviveTheWrapUntilOverwritten() throws IOException {
+        FrameSpool spool = spool(1000);
+        for (int i = 1; i <= 4; i++) spool.append(frame(i, i * 100, 300));
+
+        assertNull(spool.read(1)); // its bytes were reused by frame 4
+        assertArrayEquals(frame(4, 0, 300).toByteArray(), spool.read(4).toByteArray()); // split at the end
+        assertEquals(300, spool.read(2).length);
+    }
+
+    @Test
+    public void thinsToOneFramePerInterval() throws IOException {
+        FrameSpool spool = spool(100_000);
+        for (int i = 1; i <= 20; i++) spool.append(frame(i, 10_000 + i * 200L, 10));
+
+        List<Long> picked = spool.thinned(10_400, 13_000, 1000);
+        assertEquals(Arrays.asList(2L, 7L, 12L), picked); // captured at 10400, 11400, 12400
+    }
+
+    @Test
+    public void keepsFramesWhenOpenedAgain() throws IOException {
+        FrameSpool spool = spool(1000);
+        spool.append(frame(7, 5000, 100));
+        spool.append(frame(8, 5100, 200));
+        spool.setPendingFrom(4900);
+
+        FrameSpool reopened = spool(1000);
+        assertEquals(4900, reopened.pendingFrom());
+        assertEquals(Arrays.asList(1L, 2L), reopened.thinned(0, 10_000, 1));
+        assertArrayEquals(frame(8, 0, 200).toByteArray(), reopened.read(2).toByteArray());
+        assertEquals(2, reopened.read(2).sequence); // numbered by the spool, not the stream
+
+        reopened.append(frame(1, 6000, 50)); // the stream's numbering started over
+        assertEquals(3, reopened.read(3).sequence);
+        assertEquals(100, reopened.read(1).length);
+    }
+
+    @Test
+    public void startsEmptyWhenTheSizeChanged() throws IOException {
+        FrameSpool spool = spool(1000);
+        spool.append(frame(1, 5000, 100));
+        spool.setPendingFrom(4900);
+
+        FrameSpool resized = spool(2000);
+        assertNull(resized.read(1));
+        assertEquals(0, resized.pendingFrom());
+        assertTrue(resized.thinned(0, 10_000, 1).isEmpty());
+    }
+}
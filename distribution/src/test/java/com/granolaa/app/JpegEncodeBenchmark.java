@@ -0,0 +1,64 @@
+package com.granolaa.app;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ImageIO JPEG encoding into pooled frames at several qualities and sizes
+ * (960x540 is what a 1080p screen becomes at the default half scale).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpegEncodeBenchmark {
+
+    @Param({"960x540", "1920x1080"})
+    public String resolution;
+
+    @Param({"0.3", "0.5", "0.75", "0.9"})
+    public float quality;
+
+    @Param({"SCROLLING", "NOISE"})
+    public SyntheticSource.Pattern pattern;
+
+    private JpegEncoder encoder;
+    private BufferedImage image;
+
+    @Setup
+    public void setUp() {
+        encoder = new JpegEncoder();
+        encoder.setQuality(quality);
+        image = BenchmarkFrames.render(resolution, pattern);
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoder.dispose();
+    }
+
+    /** Returns the encoded size so the work cannot be optimised away. */
+    @Benchmark
+    public int encode() throws IOException {
+        EncodedFrame frame = encoder.encode(image);
+        int length = frame.length;
+        frame.release();
+        return length;
+    }
+}
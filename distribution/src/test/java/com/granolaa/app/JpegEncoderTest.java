@@ -0,0 +1,55 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Checks that pooled JPEG records decode, start at the front of their buffer and reuse buffers.
+ */
+public class JpegEncoderTest {
+
+    @Test
+    public void recordIsJpeg() throws IOException {
+        JpegEncoder encoder = new JpegEncoder();
+        EncodedFrame frame = encoder.encode(new BufferedImage(320, 200, BufferedImage.TYPE_INT_RGB));
+
+        assertEquals(0xFFD8, ByteBuffer.wrap(frame.data).getShort() & 0xFFFF); // SOI at the start of the buffer
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(frame.data, 0, frame.length));
+        assertNotNull(decoded);
+        assertEquals(320, decoded.getWidth());
+        assertEquals(200, decoded.getHeight());
+    }
+
+    @Test
+    public void releasedBuffersAreReused() throws IOException {
+        JpegEncoder encoder = new JpegEncoder();
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+
+        EncodedFrame first = encoder.encode(image);
+        byte[] buffer = first.data;
+        first.release();
+
+        EncodedFrame second = encoder.encode(image);
+        assertSame(buffer, second.data);
+    }
+
+    @Test
+    public void scaleTargetIsReused() {
+        JpegEncoder encoder = new JpegEncoder();
+        BufferedImage raw = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+
+        BufferedImage first = encoder.scale(raw, 0.5);
+        assertEquals(100, first.getWidth());
+        assertSame(first, encoder.scale(raw, 0.5));
+    }
+}
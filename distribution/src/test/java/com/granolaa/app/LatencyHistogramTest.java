@@ -0,0 +1,31 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks percentile lookup and clamping of out-of-range latencies.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesFollowRecordedSamples() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 100; ms++) histogram.record(ms);
+        assertEquals(100, histogram.count());
+        assertEquals(50, histogram.percentile(0.50));
+        assertEquals(99, histogram.percentile(0.99));
+        assertEquals(100, histogram.max());
+    }
+
+    @Test
+    public void outOfRangeSamplesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.5));
+        histogram.record(-5);
+        histogram.record(LatencyHistogram.MAX_MS * 3L);
+        assertEquals(0, histogram.percentile(0.5));
+        assertEquals(LatencyHistogram.MAX_MS, histogram.max());
+    }
+}
@@ -0,0 +1,61 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Checks stage histogram bucketing, the Prometheus text output and that refused streams are left out.
+ */
+public class MetricsTest {
+
+    @Test
+    public void histogramBucketsByUpperBound() {
+        LatencyHistogram histogram = LatencyHistogram.forStages();
+        histogram.recordNanos(50_000);        // 0.05 ms -> le 0.1 ms
+        histogram.recordNanos(3_000_000);     // 3 ms -> le 5 ms
+        histogram.recordNanos(60_000_000_000L); // 60 s -> +Inf
+        long[] counts = histogram.counts();
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[5]);
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(5.0, histogram.percentileMs(0.5), 0.0);
+    }
+
+    @Test
+    public void prometheusTextHasCountersAndCumulativeBuckets() {
+        StreamMetrics metrics = new StreamMetrics("screen", () -> 7);
+        metrics.onSent(1000, 2_000_000);
+        metrics.onFailure();
+        metrics.dropped(3);
+        metrics.record(StreamMetrics.Stage.ENCODE, 4_000_000);
+
+        String text = Metrics.prometheusText(Collections.singletonList(metrics));
+        assertTrue(text.contains("granolaa_frames_captured_total{stream=\"screen\"} 7\n"));
+        assertTrue(text.contains("granolaa_frames_sent_total{stream=\"screen\"} 1\n"));
+        assertTrue(text.contains("granolaa_frames_dropped_total{stream=\"screen\"} 3\n"));
+        assertTrue(text.contains("granolaa_upload_bytes_total{stream=\"screen\"} 1000\n"));
+        assertTrue(text.contains("granolaa_send_failures_total{stream=\"screen\"} 1\n"));
+        assertTrue(text.contains("granolaa_stage_seconds_bucket{stream=\"screen\",stage=\"encode\",le=\"0.0025\"} 0\n"));
+        assertTrue(text.contains("granolaa_stage_seconds_bucket{stream=\"screen\",stage=\"encode\",le=\"0.005\"} 1\n"));
+        assertTrue(text.contains("granolaa_stage_seconds_bucket{stream=\"screen\",stage=\"encode\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("granolaa_stage_seconds_sum{stream=\"screen\",stage=\"send\"} 0.002\n"));
+        assertTrue(text.contains("# TYPE granolaa_stage_seconds histogram\n"));
+    }
+
+    @Test
+    public void streamRefusedByJmxIsNotExported() {
+        StreamMetrics first = new StreamMetrics("metrics-test-duplicate", () -> 1);
+        StreamMetrics second = new StreamMetrics("metrics-test-duplicate", () -> 2);
+        Metrics.register(first);
+        Metrics.register(second); // same MBean name: refused
+
+        String text = Metrics.prometheusText(Metrics.streams());
+        assertTrue(text.contains("granolaa_frames_captured_total{stream=\"metrics-test-duplicate\"} 1\n"));
+        assertFalse(text.contains("granolaa_frames_captured_total{stream=\"metrics-test-duplicate\"} 2\n"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.granolaa.app;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.junit.Test;
+
+/**
+ * Encodes BGR Mats in OpenCV and checks the pooled records decode with the right size and colours.
+ */
+public class NativeJpegEncoderTest {
+
+    private static BufferedImage decode(EncodedFrame frame) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(frame.data, 0, frame.length));
+    }
+
+    @Test
+    public void recordIsJpegInBgrOrder() throws IOException {
+        NativeJpegEncoder encoder = new NativeJpegEncoder();
+        try (Mat red = new Mat(200, 320, CV_8UC3, new Scalar(0, 0, 255, 0))) {
+            EncodedFrame frame = encoder.encode(red, 1.0, 0.9f);
+
+            assertEquals(0xFFD8, ByteBuffer.wrap(frame.data).getShort() & 0xFFFF); // SOI at the start of the buffer
+            BufferedImage decoded = decode(frame);
+            assertNotNull(decoded);
+            assertEquals(320, decoded.getWidth());
+            assertEquals(200, decoded.getHeight());
+            int rgb = decoded.getRGB(160, 100);
+            assertTrue(((rgb >> 16) & 0xFF) > 240);
+            assertTrue((rgb & 0xFF) < 16);
+        } finally {
+            encoder.dispose();
+        }
+    }
+
+    @Test
+    public void scalesAndReusesBuffers() throws IOException {
+        NativeJpegEncoder encoder = new NativeJpegEncoder();
+        try (Mat gray = new Mat(200, 320, CV_8UC3, new Scalar(128, 128, 128, 0))) {
+            EncodedFrame first = encoder.encode(gray, 0.5, 0.75f);
+            assertEquals(160, decode(first).getWidth());
+            assertEquals(100, decode(first).getHeight());
+            byte[] buffer = first.data;
+            first.release();
+
+            EncodedFrame second = encoder.encode(gray, 0.5, 0.75f);
+            assertSame(buffer, second.data);
+        } finally {
+            encoder.dispose();
+        }
+    }
+
+    @Test
+    public void lowerQualityIsSmaller() throws IOException {
+        NativeJpegEncoder encoder = new NativeJpegEncoder();
+        try (Mat noise = new Mat(120, 160, CV_8UC3)) {
+            byte[] pixels = new byte[160 * 120 * 3];
+            new Random(1).nextBytes(pixels);
+            noise.data().put(pixels);
+            int high = encoder.encode(noise, 1.0, 0.95f).length;
+            int low = encoder.encode(noise, 1.0, 0.2f).length;
+            assertTrue(low < high);
+        } finally {
+            encoder.dispose();
+        }
+    }
+}
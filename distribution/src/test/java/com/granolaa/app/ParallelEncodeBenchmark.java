@@ -0,0 +1,70 @@
+package com.granolaa.app;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scale plus JPEG encode of a whole frame on the capture thread, against the
+ * strip-parallel encoder (-Dencode.threads sets its pool size).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelEncodeBenchmark {
+
+    @Param({"2560x1440", "3840x2160"})
+    public String resolution;
+
+    @Param({"0.5", "1.0"})
+    public double scale;
+
+    private JpegEncoder serial;
+    private ParallelJpegEncoder parallel;
+    private BufferedImage source;
+
+    @Setup
+    public void setUp() {
+        serial = new JpegEncoder();
+        parallel = new ParallelJpegEncoder();
+        source = BenchmarkFrames.render(resolution, SyntheticSource.Pattern.SCROLLING);
+    }
+
+    @TearDown
+    public void tearDown() {
+        serial.dispose();
+        parallel.dispose();
+    }
+
+    @Benchmark
+    public int serial() throws IOException {
+        EncodedFrame frame = serial.encode(serial.scale(source, scale));
+        int length = frame.length;
+        frame.release();
+        return length;
+    }
+
+    @Benchmark
+    public int strips() throws IOException {
+        EncodedFrame frame = parallel.encode(source, scale, StreamSettings.DEFAULT_QUALITY);
+        int length = frame.length;
+        frame.release();
+        return length;
+    }
+}
@@ -0,0 +1,50 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Checks that strip records cover the whole scaled frame with decodable JPEGs.
+ */
+public class ParallelJpegEncoderTest {
+
+    @Test
+    public void stripsCoverTheScaledFrame() throws Exception {
+        BufferedImage raw = BenchmarkFrames.render("1000x700", SyntheticSource.Pattern.SCROLLING);
+        ParallelJpegEncoder encoder = new ParallelJpegEncoder();
+        EncodedFrame frame = encoder.encode(raw, 0.5, 0.75f);
+
+        ByteBuffer record = ByteBuffer.wrap(frame.toByteArray());
+        assertEquals(TileEncoder.RECORD_TILES, record.get() & 0xFF);
+        assertEquals(TileEncoder.FLAG_COMPLETE, record.get() & 0xFF);
+        int width = record.getShort() & 0xFFFF;
+        int height = record.getShort() & 0xFFFF;
+        int count = record.getShort() & 0xFFFF;
+        assertEquals(500, width);
+        assertEquals(350, height);
+
+        int covered = 0;
+        for (int i = 0; i < count; i++) {
+            assertEquals(0, record.getShort());
+            assertEquals(covered, record.getShort() & 0xFFFF);
+            byte[] jpeg = new byte[record.getInt()];
+            record.get(jpeg);
+            BufferedImage strip = ImageIO.read(new ByteArrayInputStream(jpeg));
+            assertNotNull(strip);
+            assertEquals(width, strip.getWidth());
+            covered += strip.getHeight();
+        }
+        assertEquals(height, covered);
+        assertEquals(0, record.remaining());
+        frame.release();
+        encoder.dispose();
+    }
+}
@@ -0,0 +1,73 @@
+package com.granolaa.app;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One frame end to end on a single thread: grab a synthetic frame, scale it,
+ * JPEG-encode it, hand it over through a {@link FrameSlot} and write the record
+ * into an okio sink, as the capture and sender threads do between them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"STATIC", "SCROLLING", "NOISE"})
+    public SyntheticSource.Pattern pattern;
+
+    @Param({"0.5"})
+    public double scale;
+
+    private final FrameSlot slot = new FrameSlot();
+    private final Buffer sink = new Buffer();
+    private SyntheticSource source;
+    private JpegEncoder encoder;
+    private long lastSequence;
+
+    @Setup
+    public void setUp() {
+        source = BenchmarkFrames.source(resolution, pattern);
+        encoder = new JpegEncoder();
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoder.dispose();
+    }
+
+    @Benchmark
+    public long prepareAndSend() throws IOException, InterruptedException {
+        slot.publish(encoder.encode(encoder.scale(source.grab(), scale)));
+        EncodedFrame frame = slot.awaitNewer(lastSequence, 0);
+        try {
+            lastSequence = frame.sequence;
+            FrameHeader.writeRecord(sink, frame);
+            long size = sink.size();
+            sink.clear();
+            return size;
+        } finally {
+            frame.release();
+        }
+    }
+}
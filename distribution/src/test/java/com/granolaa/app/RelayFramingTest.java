@@ -0,0 +1,119 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Parses upload bodies written by the sender with the relay's own parser
+ * (server/framing.js, run in Node), the way the relay sees two requests of one
+ * stream in flight together: their chunks interleaved. Skipped without Node.
+ */
+public class RelayFramingTest {
+
+    private static final Path FRAMING = Paths.get("..", "server", "framing.js").toAbsolutePath().normalize();
+
+    /** Feeds each upload file to its own parser, round robin in 7-byte chunks, and prints "upload base64". */
+    private static final String PARSE = String.join("\n",
+            "const { createRecordParser } = require(process.argv[1]);",
+            "const uploads = process.argv.slice(2).map((file) => require('fs').readFileSync(file));",
+            "const parsers = uploads.map((_, i) => createRecordParser((record) => {",
+            "    console.log(i + ' ' + record.toString('base64'));",
+            "}));",
+            "for (let at = 0; uploads.some((body) => at < body.length); at += 7) {",
+            "    uploads.forEach((body, i) => { if (at < body.length) parsers[i].feed(body.subarray(at, at + 7)); });",
+            "}");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void overlappingUploadsParseIntact() throws Exception {
+        assumeTrue("needs node on the PATH", nodeAvailable());
+
+        List<List<byte[]>> expected = new ArrayList<>();
+        List<String> args = new ArrayList<>(Arrays.asList("node", "-e", PARSE, FRAMING.toString()));
+        for (int upload = 0; upload < 2; upload++) {
+            Buffer body = new Buffer();
+            List<byte[]> records = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                EncodedFrame frame = frame(upload * 3 + i + 1, 50 + 31 * i);
+                Buffer record = new Buffer();
+                FrameHeader.writeRecord(record, frame, true);
+                record.readInt(); // the relay hands out records without their length prefix
+                records.add(record.readByteArray());
+                FrameHeader.writeRecord(body, frame, true);
+            }
+            File file = folder.newFile("upload" + upload);
+            Files.write(file.toPath(), body.readByteArray());
+            args.add(file.getPath());
+            expected.add(records);
+        }
+
+        List<List<byte[]>> parsed = Arrays.asList(new ArrayList<>(), new ArrayList<>());
+        for (String line : run(args)) {
+            String[] parts = line.split(" ");
+            parsed.get(Integer.parseInt(parts[0])).add(Base64.getDecoder().decode(parts[1]));
+        }
+        for (int upload = 0; upload < 2; upload++) {
+            assertEquals(3, parsed.get(upload).size());
+            for (int i = 0; i < 3; i++) {
+                byte[] record = parsed.get(upload).get(i);
+                assertArrayEquals(expected.get(upload).get(i), record);
+                assertEquals(FrameHeader.RECORD_TIMED, record[0]);
+                assertEquals(upload * 3 + i + 1, ByteBuffer.wrap(record, 4, 4).getInt());
+            }
+        }
+    }
+
+    /** A timed JPEG-like record whose payload bytes are derived from the sequence. */
+    private static EncodedFrame frame(long sequence, int size) {
+        byte[] payload = new byte[size];
+        payload[0] = (byte) 0xFF;
+        for (int i = 1; i < size; i++) payload[i] = (byte) (sequence * 17 + i);
+        EncodedFrame frame = EncodedFrame.wrap(payload);
+        frame.sequence = sequence;
+        frame.capturedAtMillis = 1_700_000_000_000L + sequence;
+        frame.encodeMicros = 1234;
+        return frame;
+    }
+
+    private static boolean nodeAvailable() {
+        try {
+            Process process = new ProcessBuilder("node", "--version").redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            return process.waitFor(10, TimeUnit.SECONDS) && process.exitValue() == 0 && Files.exists(FRAMING);
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static List<String> run(List<String> command) throws Exception {
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String out = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, process.waitFor());
+        List<String> lines = new ArrayList<>();
+        for (String line : out.split("\n")) {
+            if (!line.isEmpty()) lines.add(line);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,48 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Records a few frames and replays them with their timing.
+ */
+public class ReplaySourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static BufferedImage solid(int rgb) {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) image.setRGB(x, y, rgb);
+        }
+        return image;
+    }
+
+    @Test
+    public void replaysRecordingInOrderWithTiming() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("rec");
+        FrameRecorder recorder = new FrameRecorder(dir);
+        recorder.record(solid(0xFF0000));
+        Thread.sleep(100);
+        recorder.record(solid(0x00FF00));
+        recorder.close();
+        assertEquals(2, Files.readAllLines(dir.resolve(FrameRecorder.INDEX)).size());
+
+        ReplaySource replay = new ReplaySource("screen", new StreamSettings(50, 1.0, 0.75f), false, dir);
+        assertTrue(replay.open());
+        long start = System.currentTimeMillis();
+        assertEquals(0xFF0000, replay.grab().getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(0x00FF00, replay.grab().getRGB(0, 0) & 0xFFFFFF);
+        assertTrue(System.currentTimeMillis() - start >= 90); // second frame waited for its offset
+        assertEquals(0xFF0000, replay.grab().getRGB(0, 0) & 0xFFFFFF); // loops
+    }
+}
@@ -0,0 +1,155 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the request pipeline against a local server that holds requests until told to answer.
+ */
+public class RequestPipelineTest {
+
+    private HttpServer server;
+    private final CountDownLatch answer = new CountDownLatch(1);
+    private final List<Integer> received = new CopyOnWriteArrayList<>();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger mostConcurrent = new AtomicInteger();
+    private final BlockingQueue<EncodedFrame> frames = new LinkedBlockingQueue<>();
+    private volatile boolean running = true;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/stream/screen", exchange -> {
+            mostConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] body = in.readAllBytes();
+                received.add((int) body[4]);
+                answer.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            concurrent.decrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        running = false;
+        server.stop(0);
+    }
+
+    @Test
+    public void fullQueueDropsTheOldestFrames() throws InterruptedException {
+        StreamMetrics metrics = new StreamMetrics("screen", () -> 0);
+        RequestPipeline pipeline = pipeline(metrics, 2, 2);
+        Thread sender = new Thread(pipeline::run, "screen-sender");
+        sender.start();
+
+        frames.add(frame(1));
+        frames.add(frame(2));
+        awaitReceived(2);
+        for (int i = 3; i <= 6; i++) frames.add(frame(i));
+        awaitDropped(metrics, 2);
+        assertEquals(2, pipeline.queued());
+
+        answer.countDown();
+        awaitReceived(4);
+        List<Integer> sorted = new ArrayList<>(received);
+        Collections.sort(sorted); // two at a time may land in either order
+        assertEquals(Arrays.asList(1, 2, 5, 6), sorted);
+        assertEquals(2, mostConcurrent.get());
+        running = false;
+        sender.join(2000);
+    }
+
+    @Test
+    public void oneInFlightSendsOnlyTheNewestFrameAfterAStall() throws InterruptedException {
+        StreamMetrics metrics = new StreamMetrics("screen", () -> 0);
+        RequestPipeline pipeline = pipeline(metrics, 2, 1);
+        Thread sender = new Thread(pipeline::run, "screen-sender");
+        sender.start();
+
+        frames.add(frame(1));
+        awaitReceived(1);
+        for (int i = 2; i <= 5; i++) frames.add(frame(i));
+        awaitDropped(metrics, 3);
+        assertEquals(1, pipeline.queued());
+
+        answer.countDown();
+        awaitReceived(2);
+        assertEquals(Arrays.asList(1, 5), received);
+        assertEquals(1, mostConcurrent.get());
+        running = false;
+        sender.join(2000);
+    }
+
+    @Test
+    public void sendsUpToTheInFlightLimitAtOnce() throws InterruptedException {
+        RequestPipeline pipeline = pipeline(new StreamMetrics("screen", () -> 0), 2, 3);
+        Thread sender = new Thread(pipeline::run, "screen-sender");
+        sender.start();
+
+        for (int i = 1; i <= 4; i++) frames.add(frame(i));
+        awaitReceived(3);
+        awaitQueued(pipeline, 1);
+        assertEquals(3, mostConcurrent.get());
+
+        answer.countDown();
+        awaitReceived(4);
+        running = false;
+        sender.join(2000);
+    }
+
+    private RequestPipeline pipeline(StreamMetrics metrics, int queue, int inFlight) {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/stream/screen?clientId=test";
+        FrameFeed feed = () -> frames.poll(100, TimeUnit.MILLISECONDS);
+        return new RequestPipeline(StreamClient.newHttpClient(), url, "screen", feed, () -> running,
+                SendListener.NONE, metrics, queue, inFlight);
+    }
+
+    private static EncodedFrame frame(int marker) {
+        return EncodedFrame.wrap(new byte[] {(byte) marker, 0, 0, 0});
+    }
+
+    private void awaitReceived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue("received " + received, received.size() >= count);
+    }
+
+    private static void awaitDropped(StreamMetrics metrics, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getFramesDropped() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(count, metrics.getFramesDropped());
+    }
+
+    private static void awaitQueued(RequestPipeline pipeline, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.queued() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(count, pipeline.queued());
+    }
+}
@@ -0,0 +1,69 @@
+package com.granolaa.app;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the downscale every screen frame goes through: the {@link Downscaler}
+ * the encoder uses, against the Graphics2D bilinear drawing it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScaleBenchmark {
+
+    @Param({"1920x1080", "2560x1440", "3840x2160"})
+    public String resolution;
+
+    @Param({"0.5", "0.75", "0.25"})
+    public double scale;
+
+    private JpegEncoder encoder;
+    private BufferedImage source;
+    private BufferedImage target;
+
+    @Setup
+    public void setUp() {
+        encoder = new JpegEncoder();
+        source = BenchmarkFrames.render(resolution, SyntheticSource.Pattern.SCROLLING);
+        target = new BufferedImage((int) (source.getWidth() * scale), (int) (source.getHeight() * scale),
+                BufferedImage.TYPE_INT_RGB);
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoder.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage scale() {
+        return encoder.scale(source, scale);
+    }
+
+    @Benchmark
+    public BufferedImage graphics2d() {
+        Graphics2D g = target.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, target.getWidth(), target.getHeight(), null);
+        g.dispose();
+        return target;
+    }
+}
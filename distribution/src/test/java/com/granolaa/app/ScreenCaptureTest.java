@@ -0,0 +1,144 @@
+package com.granolaa.app;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScreenCaptureTest {
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("screen.1.fps");
+        System.clearProperty("screen.1.codec");
+        System.clearProperty("screen.backend");
+        System.clearProperty("screen.1.backend");
+        System.clearProperty("screen.x11.display");
+    }
+
+    @Test
+    public void parsesRegion() {
+        assertEquals(new Rectangle(10, 20, 640, 480), ScreenCapture.parseRegion("10, 20,640,480"));
+        assertNull(ScreenCapture.parseRegion(""));
+        assertNull(ScreenCapture.parseRegion(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIncompleteRegion() {
+        ScreenCapture.parseRegion("10,20,640");
+    }
+
+    @Test
+    public void displaySettingsFallBackToScreenSettings() {
+        StreamSettings base = new StreamSettings(5, 0.5, 0.6f);
+        System.setProperty("screen.1.fps", "2");
+        System.setProperty("screen.1.codec", "h264");
+
+        StreamSettings display = StreamSettings.fromProperties("screen.1", base);
+
+        assertEquals(2, display.getFps());
+        assertEquals(0.5, display.getScale(), 0.0);
+        assertEquals(0.6f, display.getQuality(), 0.0f);
+        assertEquals(StreamSettings.Codec.H264, display.getCodec());
+    }
+
+    @Test
+    public void displayBackendFallsBackToScreenBackend() {
+        assertEquals(ScreenCapture.Backend.AUTO, ScreenCapture.Backend.fromProperties("screen.1"));
+        System.setProperty("screen.backend", "robot");
+        assertEquals(ScreenCapture.Backend.ROBOT, ScreenCapture.Backend.fromProperties("screen.1"));
+        System.setProperty("screen.1.backend", " x11grab ");
+        assertEquals(ScreenCapture.Backend.X11GRAB, ScreenCapture.Backend.fromProperties("screen.1"));
+    }
+
+    @Test
+    public void unknownCodecNamesTheChoices() {
+        System.setProperty("screen.1.codec", "h265");
+        try {
+            StreamSettings.fromProperties("screen.1", new StreamSettings(5, 0.5, 0.75f));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("-Dscreen.1.codec must be jpeg or h264: h265", e.getMessage());
+        }
+    }
+
+    @Test
+    public void unknownBackendNamesTheChoices() {
+        System.setProperty("screen.1.backend", "x11");
+        try {
+            ScreenCapture.Backend.fromProperties("screen.1");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("-Dscreen.1.backend must be robot, x11grab or auto"));
+        }
+    }
+
+    /**
+     * Grabs a region of an X display through x11grab. Uses $DISPLAY if set (e.g.
+     * under xvfb-run), else starts Xvfb itself; skipped when neither is possible.
+     */
+    @Test
+    public void x11grabCapturesRegion() throws Exception {
+        Process xvfb = null;
+        if (ScreenCapture.x11Display() == null) {
+            xvfb = startXvfb(":97");
+            System.setProperty("screen.x11.display", ":97");
+        }
+        ScreenCapture screen = new ScreenCapture("screen", new StreamSettings(10, 1.0, 0.8f), false, -1,
+                new Rectangle(10, 20, 160, 120), ScreenCapture.Backend.X11GRAB);
+        NativeJpegEncoder encoder = new NativeJpegEncoder();
+        try {
+            assertTrue(screen.open());
+            assertTrue(screen.grabsMats());
+            for (int i = 0; i < 3; i++) {
+                Mat mat = screen.grabMat();
+                assertNotNull(mat);
+                assertEquals(160, mat.cols());
+                assertEquals(120, mat.rows());
+                assertEquals(3, mat.channels());
+                EncodedFrame frame = encoder.encode(mat, 0.5, 0.8f);
+                assertTrue(frame.length > 0);
+                frame.release();
+            }
+            // Delta, video and recorded streams still get Java images
+            BufferedImage image = screen.grab();
+            assertEquals(160, image.getWidth());
+            assertEquals(120, image.getHeight());
+        } finally {
+            encoder.dispose();
+            screen.close();
+            if (xvfb != null) xvfb.destroy();
+        }
+    }
+
+    private static Process startXvfb(String display) throws Exception {
+        Process xvfb;
+        try {
+            xvfb = new ProcessBuilder("Xvfb", display, "-screen", "0", "320x240x24", "-nolisten", "tcp")
+                    .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        } catch (IOException e) {
+            Assume.assumeNoException("no DISPLAY and no Xvfb", e);
+            throw e;
+        }
+        File socket = new File("/tmp/.X11-unix/X" + display.substring(1));
+        for (int i = 0; i < 50 && !socket.exists() && xvfb.isAlive(); i++) Thread.sleep(100);
+        if (!socket.exists()) {
+            xvfb.destroy();
+            xvfb.waitFor(1, TimeUnit.SECONDS);
+            throw new IllegalStateException("Xvfb did not start on " + display);
+        }
+        return xvfb;
+    }
+}
@@ -0,0 +1,87 @@
+package com.granolaa.app;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Screen capture with {@link java.awt.Robot} against FFmpeg's x11grab, on one
+ * thread, so the time per frame is also the CPU it costs this process (add
+ * {@code -prof gc} for Robot's heap image per frame). Needs an X display, e.g.
+ * {@code xvfb-run -a -s "-screen 0 1920x1080x24" mvn -Pbench test -Djmh.args=ScreenGrabBenchmark}.
+ * Both grab the whole default screen and hand over what their stream would
+ * encode: a BufferedImage from Robot, a native Mat from x11grab.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=false")
+public class ScreenGrabBenchmark {
+
+    @Param({"ROBOT", "X11GRAB"})
+    public ScreenCapture.Backend backend;
+
+    @Param({"0.5"})
+    public double scale;
+
+    private ScreenCapture screen;
+    private JpegEncoder encoder;
+    private NativeJpegEncoder matEncoder;
+
+    @Setup
+    public void setUp() throws Exception {
+        screen = new ScreenCapture("bench", new StreamSettings(30, scale, StreamSettings.DEFAULT_QUALITY), false,
+                -1, null, backend);
+        if (!screen.open()) throw new IllegalStateException("Cannot capture the screen");
+        encoder = new JpegEncoder();
+        matEncoder = new NativeJpegEncoder();
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoder.dispose();
+        matEncoder.dispose();
+        screen.close();
+    }
+
+    @Benchmark
+    public Object grab() throws Exception {
+        return screen.grabsMats() ? screen.grabMat() : screen.grab();
+    }
+
+    /** Grab, scale and JPEG-encode, as a plain JPEG stream does on each tick. */
+    @Benchmark
+    public int grabAndEncode() throws Exception {
+        EncodedFrame frame;
+        if (screen.grabsMats()) {
+            Mat mat = screen.grabMat();
+            frame = matEncoder.encode(mat, scale, StreamSettings.DEFAULT_QUALITY);
+        } else {
+            frame = encode(screen.grab());
+        }
+        int length = frame.length;
+        frame.release();
+        return length;
+    }
+
+    private EncodedFrame encode(BufferedImage image) throws IOException {
+        encoder.setQuality(StreamSettings.DEFAULT_QUALITY);
+        return encoder.encode(encoder.scale(image, scale));
+    }
+}
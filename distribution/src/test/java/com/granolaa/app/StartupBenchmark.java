@@ -0,0 +1,108 @@
+package com.granolaa.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cold start of the client: launches a new JVM running {@link App} on synthetic
+ * sources and times it until it starts streaming (its "Streaming" line). By
+ * default it runs the test classpath; to time the shipped jar with and without
+ * its AppCDS archive, build both with {@code mvn -Pappcds verify} and pass e.g.
+ * {@code -p jar=target/granolaa-1.0-SNAPSHOT-linux-x86_64.jar -p archive=none,target/granolaa.jsa}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final String READY_LINE = "Streaming ";
+
+    /** A jar to run with -jar, or "classpath" for the classpath of this JVM. */
+    @Param({"classpath"})
+    public String jar;
+
+    /** An AppCDS archive for -XX:SharedArchiveFile, or "none". */
+    @Param({"none"})
+    public String archive;
+
+    private Process process;
+
+    @Benchmark
+    public long startUntilStreaming() throws IOException {
+        process = new ProcessBuilder(command()).redirectErrorStream(true).start();
+        try (BufferedReader out = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith(READY_LINE)) return line.length();
+            }
+        }
+        throw new IllegalStateException("App exited with " + waitFor() + " before streaming");
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopApp() {
+        if (process != null) {
+            process.destroyForcibly();
+            waitFor();
+            process = null;
+        }
+    }
+
+    private List<String> command() {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (!archive.equals("none")) {
+            if (!Files.exists(Paths.get(archive))) throw new IllegalStateException("No archive " + archive);
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.add("-Djava.awt.headless=true");
+        command.add("-Dscreen.source=scrolling");
+        command.add("-Dwebcam.source=static");
+        command.add("-Dserver.url=http://127.0.0.1:9");
+        command.add("-Dapp.seconds=60");
+        if (jar.equals("classpath")) {
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(App.class.getName());
+        } else {
+            if (!new File(jar).isFile()) throw new IllegalStateException("No jar " + jar);
+            command.add("-jar");
+            command.add(jar);
+        }
+        return command;
+    }
+
+    private int waitFor() {
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+}
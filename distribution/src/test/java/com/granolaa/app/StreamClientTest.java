@@ -0,0 +1,24 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import okhttp3.OkHttpClient;
+import org.junit.Test;
+
+/**
+ * Checks the socket settings of the persistent uploads.
+ */
+public class StreamClientTest {
+
+    @Test
+    public void uploadSocketsGetTheSmallSendBuffer() throws IOException {
+        OkHttpClient client = StreamClient.withSendBuffer(StreamClient.newHttpClient(), 64 * 1024);
+        try (Socket socket = client.socketFactory().createSocket()) {
+            // Linux reports twice the size asked for, to cover its bookkeeping
+            assertTrue(socket.getSendBufferSize() <= 2 * 64 * 1024);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import org.junit.Test;
+
+/**
+ * Checks that synthetic frames are reproducible and change as their pattern says.
+ */
+public class SyntheticSourceTest {
+
+    private static SyntheticSource source(SyntheticSource.Pattern pattern) {
+        SyntheticSource source = new SyntheticSource("screen", new StreamSettings(10, 1.0, 0.75f), false,
+                pattern, 320, 180, 42);
+        source.open();
+        return source;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData().clone();
+    }
+
+    @Test
+    public void sameSeedGivesSameFrames() {
+        for (SyntheticSource.Pattern pattern : SyntheticSource.Pattern.values()) {
+            SyntheticSource a = source(pattern);
+            SyntheticSource b = source(pattern);
+            for (int i = 0; i < 3; i++) {
+                assertArrayEquals(pattern.name(), pixels(a.grab()), pixels(b.grab()));
+            }
+        }
+    }
+
+    @Test
+    public void patternsChangeAsExpected() {
+        TileEncoder tiles = new TileEncoder(32);
+        SyntheticSource still = source(SyntheticSource.Pattern.STATIC);
+        tiles.update(still.grab());
+        tiles.update(still.grab());
+        assertEquals(0, tiles.dirtyCount());
+
+        tiles = new TileEncoder(32);
+        SyntheticSource scrolling = source(SyntheticSource.Pattern.SCROLLING);
+        tiles.update(scrolling.grab());
+        tiles.update(scrolling.grab());
+        assertTrue(tiles.dirtyCount() > 0);
+
+        tiles = new TileEncoder(32);
+        SyntheticSource noise = source(SyntheticSource.Pattern.NOISE);
+        tiles.update(noise.grab());
+        tiles.update(noise.grab());
+        assertEquals(tiles.tileCount(), tiles.dirtyCount());
+        assertFalse(tiles.dirtyCount() == 0);
+    }
+
+    @Test
+    public void patternNamesIgnoreCase() {
+        assertEquals(SyntheticSource.Pattern.NOISE, SyntheticSource.pattern("Noise"));
+        assertNull(SyntheticSource.pattern("scroling"));
+    }
+
+    @Test
+    public void unknownSourceNamesTheChoices() {
+        System.setProperty("typo.source", "scroling");
+        try {
+            FrameSource.fromProperties("typo", new StreamSettings(10, 1.0, 0.75f), false, () -> null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("replay:<dir>"));
+        } finally {
+            System.clearProperty("typo.source");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Checks tile change tracking and the tile record layout read by public/app.js.
+ */
+public class TileEncoderTest {
+
+    @Test
+    public void firstFrameNeedsKeyframe() {
+        TileEncoder tiles = new TileEncoder(16);
+        assertFalse(tiles.update(image(40, 20)));
+        assertEquals(6, tiles.tileCount());
+        assertEquals(0, tiles.dirtyCount());
+    }
+
+    @Test
+    public void onlyChangedTilesAreEncoded() throws IOException {
+        TileEncoder tiles = new TileEncoder(16);
+        BufferedImage frame = image(40, 20);
+        tiles.update(frame);
+
+        frame.setRGB(35, 18, 0xFFFFFF); // bottom-right tile (32,16), clipped to 8x4
+        assertTrue(tiles.update(frame));
+        assertEquals(1, tiles.dirtyCount());
+
+        EncodedFrame record = tiles.encode(frame, new JpegEncoder());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.data, 0, record.length));
+        assertEquals(TileEncoder.RECORD_TILES, in.readUnsignedByte());
+        assertEquals(0, in.readUnsignedByte());
+        assertEquals(40, in.readUnsignedShort());
+        assertEquals(20, in.readUnsignedShort());
+        assertEquals(1, in.readUnsignedShort());
+        assertEquals(32, in.readUnsignedShort());
+        assertEquals(16, in.readUnsignedShort());
+        int len = in.readInt();
+        assertEquals(0xFF, in.readUnsignedByte()); // JPEG SOI
+        assertEquals(len - 1, in.available());
+    }
+
+    @Test
+    public void changesAccumulateUntilCleared() {
+        TileEncoder tiles = new TileEncoder(16);
+        BufferedImage frame = image(40, 20);
+        tiles.update(frame);
+
+        frame.setRGB(0, 0, 0xFFFFFF);
+        tiles.update(frame);
+        frame.setRGB(20, 0, 0xFFFFFF);
+        tiles.update(frame);
+        assertEquals(2, tiles.dirtyCount());
+
+        tiles.clear();
+        tiles.update(frame);
+        assertEquals(0, tiles.dirtyCount());
+    }
+
+    private static BufferedImage image(int w, int h) {
+        return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    }
+}
@@ -0,0 +1,111 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Encodes a few synthetic frames through the bundled FFmpeg and checks the video record layout.
+ */
+public class VideoEncoderTest {
+
+    @Test
+    public void firstRecordIsKeyframeThenDeltas() throws Exception {
+        VideoEncoder encoder = new VideoEncoder();
+        StreamSettings settings = new StreamSettings(5, 1.0, 0.75f);
+        BufferedImage image = new BufferedImage(321, 200, BufferedImage.TYPE_INT_RGB);
+        try {
+            EncodedFrame first = encoder.encode(image, settings);
+            assertNotNull(first);
+            assertEquals(VideoEncoder.RECORD_VIDEO, first.data[0]);
+            assertEquals(VideoEncoder.FLAG_KEYFRAME, first.data[1]);
+            assertEquals(VideoEncoder.CODEC_H264, first.data[2]);
+            assertEquals(320, ((first.data[3] & 0xFF) << 8) | (first.data[4] & 0xFF)); // cropped to even
+            assertEquals(200, ((first.data[5] & 0xFF) << 8) | (first.data[6] & 0xFF));
+
+            image.setRGB(10, 10, 0xFFFFFF);
+            EncodedFrame second = encoder.encode(image, settings);
+            assertNotNull(second);
+            assertEquals(0, second.data[1]);
+        } finally {
+            encoder.dispose();
+        }
+    }
+
+    @Test
+    public void skippedRecordForcesKeyframe() throws Exception {
+        VideoEncoder encoder = new VideoEncoder();
+        StreamSettings settings = new StreamSettings(5, 1.0, 0.75f);
+        BufferedImage image = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+        FrameSlot slot = new FrameSlot();
+        try {
+            encoder.encodeInto(slot, image, settings);
+            slot.awaitTake(0).release();
+            encoder.encodeInto(slot, image, settings); // left in the slot, never taken
+            encoder.encodeInto(slot, image, settings);
+
+            EncodedFrame latest = slot.awaitTake(0);
+            assertTrue(VideoEncoder.containsIdr(latest.data, 7, latest.length));
+            assertEquals(VideoEncoder.FLAG_KEYFRAME, latest.data[1]);
+        } finally {
+            encoder.dispose();
+        }
+    }
+
+    @Test
+    public void forcesKeyframesWithoutRestarting() throws Exception {
+        VideoEncoder encoder = new VideoEncoder();
+        StreamSettings settings = new StreamSettings(5, 1.0, 0.75f);
+        BufferedImage image = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+        FrameSlot slot = new FrameSlot();
+        try {
+            encoder.encodeInto(slot, image, settings);
+            slot.awaitTake(0).release();
+            encoder.encodeInto(slot, image, settings); // lost: the next record is forced to be a keyframe
+            encoder.encodeInto(slot, image, settings);
+            assertEquals(VideoEncoder.FLAG_KEYFRAME, slot.awaitTake(0).data[1]);
+
+            settings.setQuality(0.5f); // waits for the next scheduled keyframe
+            EncodedFrame delta = encoder.encode(image, settings);
+            assertEquals(0, delta.data[1]);
+            assertEquals(1, encoder.restarts());
+        } finally {
+            encoder.dispose();
+        }
+    }
+
+    @Test
+    public void settingsChangeRestartsAtTheNextScheduledKeyframe() throws Exception {
+        AtomicLong now = new AtomicLong(1_000_000);
+        VideoEncoder encoder = new VideoEncoder(now::get);
+        StreamSettings settings = new StreamSettings(5, 1.0, 0.75f);
+        BufferedImage image = new BufferedImage(160, 120, BufferedImage.TYPE_3BYTE_BGR);
+        try {
+            assertEquals(VideoEncoder.FLAG_KEYFRAME, encoder.encode(image, settings).data[1]);
+            settings.setFps(10);
+            now.addAndGet(VideoEncoder.KEYFRAME_INTERVAL_MS - 1);
+            assertEquals(0, encoder.encode(image, settings).data[1]);
+            assertEquals(1, encoder.restarts());
+            now.incrementAndGet();
+            EncodedFrame keyframe = encoder.encode(image, settings);
+            assertEquals(VideoEncoder.FLAG_KEYFRAME, keyframe.data[1]);
+            assertEquals(2, encoder.restarts());
+        } finally {
+            encoder.dispose();
+        }
+    }
+
+    @Test
+    public void idrDetection() {
+        byte[] nonIdr = {0, 0, 0, 1, 0x41, 5, 5};
+        byte[] idr = {0, 0, 0, 1, 0x67, 1, 0, 0, 1, 0x65, 9};
+        assertFalse(VideoEncoder.containsIdr(nonIdr, 0, nonIdr.length));
+        assertTrue(VideoEncoder.containsIdr(idr, 0, idr.length));
+    }
+}
@@ -0,0 +1,100 @@
+package com.granolaa.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Plays a short video file through the webcam source in place of a camera and
+ * encodes its frames on the native Mat path.
+ */
+public class WebcamCaptureTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Writes a few solid blue MJPEG frames, using only encoders built into FFmpeg. */
+    private File blueVideo(int frames) throws Exception {
+        File file = folder.newFile("webcam.avi");
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) image.setRGB(x, y, 0x0000FF);
+        }
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(file, WIDTH, HEIGHT);
+             Java2DFrameConverter converter = new Java2DFrameConverter()) {
+            recorder.setFormat("avi");
+            recorder.setVideoCodec(avcodec.AV_CODEC_ID_MJPEG);
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_YUVJ420P);
+            recorder.setFrameRate(10);
+            recorder.start();
+            for (int i = 0; i < frames; i++) recorder.record(converter.convert(image));
+            recorder.stop();
+        }
+        return file;
+    }
+
+    @Test
+    public void videoFileFramesEncodeNatively() throws Exception {
+        File video = blueVideo(3);
+        WebcamCapture webcam = new WebcamCapture(new StreamSettings(10, 0.5, 0.8f), video.getPath());
+        NativeJpegEncoder encoder = new NativeJpegEncoder();
+        try {
+            assertTrue(webcam.open());
+            assertTrue(webcam.grabsMats());
+            for (int i = 0; i < 5; i++) { // runs past the end: the file loops
+                Mat mat = webcam.grabMat();
+                assertNotNull(mat);
+                assertEquals(WIDTH, mat.cols());
+                assertEquals(HEIGHT, mat.rows());
+
+                EncodedFrame frame = encoder.encode(mat, 0.5, 0.8f);
+                BufferedImage decoded = ImageIO.read(
+                        new ByteArrayInputStream(frame.data, 0, frame.length));
+                assertEquals(WIDTH / 2, decoded.getWidth());
+                int rgb = decoded.getRGB(WIDTH / 4, HEIGHT / 4);
+                assertTrue((rgb & 0xFF) > 200);
+                assertTrue(((rgb >> 16) & 0xFF) < 40);
+                frame.release();
+            }
+        } finally {
+            encoder.dispose();
+            webcam.close();
+        }
+    }
+
+    @Test
+    public void changeDetectorSeesIdenticalMatsAsUnchanged() throws Exception {
+        File video = blueVideo(2);
+        WebcamCapture webcam = new WebcamCapture(new StreamSettings(10, 1.0, 0.8f), video.getPath());
+        ChangeDetector changes = new ChangeDetector(2, 60_000);
+        try {
+            assertTrue(webcam.open());
+            Mat first = webcam.grabMat();
+            assertTrue(changes.shouldEncode(first.createBuffer(), first.cols(), first.rows(), (int) first.step(), 0));
+            Mat second = webcam.grabMat();
+            assertFalse(changes.shouldEncode(second.createBuffer(), second.cols(), second.rows(),
+                    (int) second.step(), 100));
+        } finally {
+            webcam.close();
+        }
+    }
+}
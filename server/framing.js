@@ -0,0 +1,74 @@
+// Upload framing shared by the /stream endpoints: a body is repeated
+// [4-byte big-endian length][payload]. Kept free of dependencies so it can be tested on its own.
+
+const MAX_RECORD = 10 * 1024 * 1024;
+
+// Record types the relay and viewer recognise (see public/app.js drawRecord)
+const RECORD_TILES = 0x01;
+const TILE_FLAG_COMPLETE = 0x01;
+const RECORD_VIDEO = 0x02;
+const VIDEO_FLAG_KEYFRAME = 0x01;
+const RECORD_TIMED = 0x03;
+const TIMED_HEADER_MIN = 20;
+
+// Returns a parser for one upload: feed(chunk) calls onRecord(payload, receivedAt) for every
+// complete record, where receivedAt is when its length prefix arrived. Each request gets its
+// own parser, so concurrent or overlapping uploads of the same stream never share a buffer.
+// A length over MAX_RECORD is not a record of ours: the rest of the upload is ignored.
+function createRecordParser(onRecord) {
+    let buf = Buffer.alloc(0);
+    let need = 0; // payload length still to read, 0 while waiting for a prefix
+    let prefixAt = 0;
+    let broken = false;
+    return {
+        feed(chunk) {
+            if (broken) return;
+            buf = buf.length === 0 ? chunk : Buffer.concat([buf, chunk]);
+            while (true) {
+                if (need === 0) {
+                    if (buf.length < 4) break;
+                    need = buf.readUInt32BE(0);
+                    buf = buf.subarray(4);
+                    prefixAt = Date.now();
+                    if (need > MAX_RECORD) {
+                        broken = true;
+                        buf = Buffer.alloc(0);
+                        return;
+                    }
+                    if (need === 0) continue;
+                }
+                if (buf.length < need) break;
+                const record = buf.subarray(0, need);
+                buf = buf.subarray(need);
+                need = 0;
+                onRecord(record, prefixAt);
+            }
+        },
+        get broken() {
+            return broken;
+        }
+    };
+}
+
+// Offset of the record proper, after the sender's timing header if it has one.
+function recordStart(record) {
+    if (record[0] === RECORD_TIMED && record.length >= 4) return record.readUInt16BE(2);
+    return 0;
+}
+
+// The sender's capture time (ms since the epoch) from the timing header, or null if it has none.
+function recordCapturedAt(record) {
+    if (record[0] !== RECORD_TIMED || record.length < TIMED_HEADER_MIN) return null;
+    return record.readUInt32BE(8) * 2 ** 32 + record.readUInt32BE(12);
+}
+
+// True if a viewer can draw the record without the ones before it: plain JPEGs, complete
+// tile records and H.264 keyframes.
+function isKeyframe(record) {
+    const offset = recordStart(record);
+    if (record[offset] === RECORD_TILES) return (record[offset + 1] & TILE_FLAG_COMPLETE) !== 0;
+    if (record[offset] === RECORD_VIDEO) return (record[offset + 1] & VIDEO_FLAG_KEYFRAME) !== 0;
+    return true;
+}
+
+module.exports = { MAX_RECORD, createRecordParser, recordStart, recordCapturedAt, isKeyframe };
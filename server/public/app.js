@@ -7,6 +7,20 @@ let hasReceivedFrame = false; // Track if we've ever received a frame
 let pinnedClients = new Set(); // clientIds pinned by the viewer
 let lastStreamList = [];
 const STREAM_TTL_MS = 5000; // keep clients \"active\" for a few seconds to avoid flicker
+const RECORD_TILES = 0x01; // first byte of a tile record; plain JPEG records start with 0xFF
+const TILE_FLAG_COMPLETE = 0x01; // tiles cover the whole frame (parallel strip encoding)
+const RECORD_VIDEO = 0x02; // first byte of an H.264 record (see VideoEncoder.java)
+const VIDEO_HEADER_SIZE = 7;
+const RECORD_TIMED = 0x03; // optional timing header in front of any record (see FrameHeader.java)
+const MESSAGE_FRAME = 0x01; // first byte of a binary frame message (see broadcastFrame in server.js)
+const STREAM_TYPES = ['screen', 'webcam']; // stream codes in frame messages
+const FRAME_MESSAGE_HEADER = 13;
+const textDecoder = new TextDecoder();
+const LATENCY_SMOOTHING = 0.2; // weight of the newest sample in the displayed latency
+const latencies = new Map(); // clientId -> smoothed glass-to-glass latency in ms
+const lastSequences = new Map(); // clientId:streamType -> sequence of the newest record queued for drawing
+const renderQueues = new Map(); // canvas id -> promise of the last queued draw
+const videoDecoders = new Map(); // canvas id -> { decoder, width, height, started, timestamp }
 
 // Load pinned clients from localStorage
 try {
@@ -24,6 +38,7 @@ function connect() {
     statusEl.className = 'status connecting';
 
     ws = new WebSocket(WS_URL);
+    ws.binaryType = 'arraybuffer';
 
     ws.onopen = () => {
         console.log('Connected to server');
@@ -37,12 +52,16 @@ function connect() {
 
     ws.onmessage = (event) => {
         try {
+            // Frames arrive as binary messages, everything else as JSON text
+            if (event.data instanceof ArrayBuffer) {
+                const message = parseFrameMessage(new Uint8Array(event.data));
+                if (message) handleFrame(message);
+                return;
+            }
             const message = JSON.parse(event.data);
             
             if (message.type === 'streams') {
                 handleStreamsUpdate(message.streams);
-            } else if (message.type === 'frame') {
-                handleFrame(message);
             }
         } catch (error) {
             console.error('Error parsing message:', error);
@@ -83,6 +102,7 @@ function handleStreamsUpdate(streamList) {
         streams.set(s.clientId, {
             hasScreen: s.hasScreen,
             hasWebcam: s.hasWebcam,
+            outageFrames: s.outageFrames || 0,
             lastSeen: now
         });
     });
@@ -91,7 +111,7 @@ function handleStreamsUpdate(streamList) {
     const active = [];
     streams.forEach((info, clientId) => {
         if (now - info.lastSeen <= STREAM_TTL_MS && (info.hasScreen || info.hasWebcam)) {
-            active.push({ clientId, hasScreen: info.hasScreen, hasWebcam: info.hasWebcam });
+            active.push({ clientId, hasScreen: info.hasScreen, hasWebcam: info.hasWebcam, outageFrames: info.outageFrames });
         } else if (now - info.lastSeen > STREAM_TTL_MS) {
             streams.delete(clientId);
         }
@@ -124,7 +144,7 @@ function handleStreamsUpdate(streamList) {
 }
 
 function ensureClientCard(stream, container) {
-    const { clientId, hasScreen, hasWebcam } = stream;
+    const { clientId, hasScreen, hasWebcam, outageFrames } = stream;
     let card = document.getElementById(`stream-${clientId}`);
     const isPinned = pinnedClients.has(clientId);
 
@@ -143,21 +163,31 @@ function ensureClientCard(stream, container) {
                     </span>
                 </div>
                 <div class="stream-header-right">
+                    <button class="outage-btn" data-client-id="${clientId}" style="display: none;"></button>
                     <button class="expand-btn" data-client-id="${clientId}">Expand</button>
                     <button class="pin-btn ${isPinned ? 'pinned' : ''}" data-client-id="${clientId}">
                         ${isPinned ? 'Unpin' : 'Pin'}
                     </button>
+                    <span class="stream-latency" id="latency-${clientId}"></span>
                     <div class="stream-client-id">${clientId.substring(0, 8)}...</div>
                 </div>
             </div>
             <div class="stream-content">
-                <img id="img-${clientId}-main" class="stream-image stream-image-main" alt="main stream">
+                <canvas id="canvas-${clientId}-main" class="stream-image stream-image-main" style="display: none;"></canvas>
                 <div id="placeholder-${clientId}-main" class="stream-placeholder">Waiting for frames...</div>
                 <div id="pip-${clientId}" class="pip-container" style="display: ${hasScreen && hasWebcam ? 'block' : 'none'};">
-                    <img id="img-${clientId}-pip" class="stream-image stream-image-pip" alt="webcam stream">
+                    <canvas id="canvas-${clientId}-pip" class="stream-image stream-image-pip" style="display: none;"></canvas>
                     <div id="placeholder-${clientId}-pip" class="stream-placeholder pip-placeholder">Waiting for webcam...</div>
                 </div>
             </div>
+            <div id="outage-${clientId}" class="outage-panel" style="display: none;">
+                <div class="outage-controls">
+                    <select class="outage-stream"></select>
+                    <input type="range" class="outage-slider" min="0" max="0" value="0">
+                    <span class="outage-time"></span>
+                </div>
+                <img class="outage-image" alt="Frame captured during an outage">
+            </div>
         `;
     } else {
         // Update existing card header + pip visibility without recreating DOM
@@ -180,10 +210,17 @@ function ensureClientCard(stream, container) {
         }
     }
 
-    // Attach card-level expand toggle once (click anywhere except buttons)
+    // Frames the sender captured while it could not reach the relay, uploaded afterwards
+    const outageBtn = card.querySelector('.outage-btn');
+    if (outageBtn) {
+        outageBtn.style.display = outageFrames > 0 ? 'inline-block' : 'none';
+        outageBtn.textContent = `Outage (${outageFrames})`;
+    }
+
+    // Attach card-level expand toggle once (click anywhere except buttons and the outage timeline)
     if (!card.dataset.expandHandlerAttached) {
         card.addEventListener('click', (e) => {
-            if (e.target.closest('button')) return;
+            if (e.target.closest('button') || e.target.closest('.outage-panel')) return;
             card.classList.toggle('expanded');
             const expandBtn = card.querySelector('.expand-btn');
             if (expandBtn) {
@@ -197,8 +234,23 @@ function ensureClientCard(stream, container) {
     container.appendChild(card);
 }
 
+// Frame message fields: u8 MESSAGE_FRAME, u8 stream type, u16 relay time (ms),
+// u64 receivedAt (ms since epoch), u8 clientId length, clientId (UTF-8), then the record.
+function parseFrameMessage(bytes) {
+    if (bytes[0] !== MESSAGE_FRAME || bytes.length < FRAME_MESSAGE_HEADER) return null;
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    const idEnd = FRAME_MESSAGE_HEADER + bytes[12];
+    return {
+        streamType: STREAM_TYPES[bytes[1]],
+        relayMs: view.getUint16(2),
+        receivedAt: view.getUint32(4) * 2 ** 32 + view.getUint32(8),
+        clientId: textDecoder.decode(bytes.subarray(FRAME_MESSAGE_HEADER, idEnd)),
+        record: bytes.subarray(idEnd)
+    };
+}
+
 function handleFrame(message) {
-    const { clientId, streamType, data } = message;
+    const { clientId, streamType, relayMs } = message;
     const streamInfo = streams.get(clientId) || { hasScreen: false, hasWebcam: false };
 
     // Determine whether this frame should go to main or PiP
@@ -210,13 +262,13 @@ function handleFrame(message) {
         target = 'main';
     }
 
-    const imgId = `img-${clientId}-${target}`;
+    const canvasId = `canvas-${clientId}-${target}`;
     const placeholderId = `placeholder-${clientId}-${target}`;
 
-    const img = document.getElementById(imgId);
+    const canvas = document.getElementById(canvasId);
     const placeholder = document.getElementById(placeholderId);
 
-    if (img && placeholder) {
+    if (canvas && placeholder) {
         // Mark that we've received at least one frame, hide "no streams" permanently
         if (!hasReceivedFrame) {
             hasReceivedFrame = true;
@@ -224,12 +276,177 @@ function handleFrame(message) {
             if (noStreamsEl) noStreamsEl.style.display = 'none';
         }
 
-        // Convert base64 to blob URL for better performance
-        const base64Data = `data:image/jpeg;base64,${data}`;
-        img.src = base64Data;
-        img.style.display = 'block';
-        placeholder.style.display = 'none';
+        // Uploads in flight together can arrive out of order: never step back to an older frame
+        const { timing, record } = splitTiming(message.record);
+        if (timing) {
+            const key = `${clientId}:${streamType}`;
+            const last = lastSequences.get(key);
+            if (last !== undefined && timing.sequence <= last) return;
+            lastSequences.set(key, timing.sequence);
+        }
+
+        // Decoding is async; chain per canvas so records are drawn in arrival order
+        const previous = renderQueues.get(canvasId) || Promise.resolve();
+        const next = previous
+            .then(() => drawRecord(canvas, record))
+            .then((drawn) => {
+                if (drawn) {
+                    canvas.style.display = 'block';
+                    placeholder.style.display = 'none';
+                    if (timing) showLatency(clientId, streamType, timing, relayMs);
+                }
+            })
+            .catch((error) => console.error('Error drawing frame:', error));
+        renderQueues.set(canvasId, next);
+    }
+}
+
+// Strips the timing header, if the sender added one. Header fields: u8 type, u8 version,
+// u16 header size, u32 sequence, u64 capture time (ms since epoch), u32 encode time (us).
+function splitTiming(bytes) {
+    if (bytes[0] !== RECORD_TIMED || bytes.length < 20) {
+        return { timing: null, record: bytes };
+    }
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    const size = view.getUint16(2);
+    const timing = {
+        sequence: view.getUint32(4),
+        capturedAt: view.getUint32(8) * 2 ** 32 + view.getUint32(12),
+        encodeMs: view.getUint32(16) / 1000
+    };
+    return { timing, record: bytes.subarray(size) };
+}
+
+// Glass-to-glass latency: capture on the sender to drawn here. Compares two machines'
+// clocks, so it is only as accurate as their sync (NTP is usually within a few ms).
+function showLatency(clientId, streamType, timing, relayMs) {
+    const key = `${clientId}:${streamType}`;
+    const sample = Date.now() - timing.capturedAt;
+    const previous = latencies.get(key);
+    const smoothed = previous === undefined ? sample : previous + LATENCY_SMOOTHING * (sample - previous);
+    latencies.set(key, smoothed);
+
+    const el = document.getElementById(`latency-${clientId}`);
+    if (!el) return;
+    el.textContent = `${Math.round(smoothed)} ms`;
+    el.title = `${streamType}: encode ${timing.encodeMs.toFixed(1)} ms, relay ${relayMs ?? '?'} ms, `
+        + `glass-to-glass ${Math.round(sample)} ms (frame ${timing.sequence})`;
+}
+
+// Records are a plain JPEG (starts with 0xFF), a tile record (see TileEncoder.java)
+// or an H.264 record. Resolves to true if something was drawn.
+function drawRecord(canvas, bytes) {
+    if (bytes[0] === 0xFF) {
+        return createImageBitmap(new Blob([bytes], { type: 'image/jpeg' })).then((bitmap) => {
+            if (canvas.width !== bitmap.width || canvas.height !== bitmap.height) {
+                canvas.width = bitmap.width;
+                canvas.height = bitmap.height;
+            }
+            canvas.getContext('2d').drawImage(bitmap, 0, 0);
+            bitmap.close();
+            canvas.dataset.hasKeyframe = '1';
+            return true;
+        });
+    }
+    if (bytes[0] === RECORD_TILES) {
+        return drawTiles(canvas, bytes);
+    }
+    if (bytes[0] === RECORD_VIDEO) {
+        return Promise.resolve(decodeVideo(canvas, bytes));
+    }
+    return Promise.resolve(false);
+}
+
+// Feeds an H.264 access unit to the canvas's WebCodecs decoder; decoded frames are drawn
+// from the decoder's output callback. Decoding (re)starts at the next keyframe.
+function decodeVideo(canvas, bytes) {
+    if (typeof VideoDecoder === 'undefined') {
+        return false; // WebCodecs needs a recent browser and a secure context
+    }
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    const keyframe = (bytes[1] & 0x01) !== 0;
+    const width = view.getUint16(3);
+    const height = view.getUint16(5);
+
+    let state = videoDecoders.get(canvas.id);
+    if (!state || state.width !== width || state.height !== height || state.decoder.state === 'closed') {
+        if (!keyframe) return false;
+        if (state && state.decoder.state !== 'closed') state.decoder.close();
+        state = createVideoDecoder(canvas, width, height);
+        videoDecoders.set(canvas.id, state);
+    }
+    if (!state.started) {
+        if (!keyframe) return false;
+        state.started = true;
+    }
+
+    state.decoder.decode(new EncodedVideoChunk({
+        type: keyframe ? 'key' : 'delta',
+        timestamp: state.timestamp++,
+        data: bytes.subarray(VIDEO_HEADER_SIZE)
+    }));
+    return true;
+}
+
+function createVideoDecoder(canvas, width, height) {
+    const state = { width, height, started: false, timestamp: 0, decoder: null };
+    state.decoder = new VideoDecoder({
+        output: (frame) => {
+            if (canvas.width !== frame.displayWidth || canvas.height !== frame.displayHeight) {
+                canvas.width = frame.displayWidth;
+                canvas.height = frame.displayHeight;
+            }
+            canvas.getContext('2d').drawImage(frame, 0, 0);
+            frame.close();
+        },
+        error: (error) => {
+            // The decoder is closed now; a new one is created at the next keyframe
+            console.error('Video decode error:', error);
+        }
+    });
+    // No description: chunks are Annex B with in-band SPS/PPS
+    state.decoder.configure({ codec: 'avc1.42E033', codedWidth: width, codedHeight: height, optimizeForLatency: true });
+    return state;
+}
+
+function drawTiles(canvas, bytes) {
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    const width = view.getUint16(2);
+    const height = view.getUint16(4);
+    const count = view.getUint16(6);
+    const complete = (bytes[1] & TILE_FLAG_COMPLETE) !== 0;
+
+    // Partial tiles only make sense on top of a keyframe of the same size; wait for the next one
+    if (!complete && (!canvas.dataset.hasKeyframe || canvas.width !== width || canvas.height !== height)) {
+        return Promise.resolve(false);
     }
+
+    const tiles = [];
+    let offset = 8;
+    for (let i = 0; i < count; i++) {
+        const x = view.getUint16(offset);
+        const y = view.getUint16(offset + 2);
+        const len = view.getUint32(offset + 4);
+        offset += 8;
+        tiles.push({ x, y, blob: new Blob([bytes.subarray(offset, offset + len)], { type: 'image/jpeg' }) });
+        offset += len;
+    }
+
+    return Promise.all(tiles.map((tile) => createImageBitmap(tile.blob))).then((bitmaps) => {
+        if (complete) {
+            if (canvas.width !== width || canvas.height !== height) {
+                canvas.width = width;
+                canvas.height = height;
+            }
+            canvas.dataset.hasKeyframe = '1';
+        }
+        const ctx = canvas.getContext('2d');
+        bitmaps.forEach((bitmap, i) => {
+            ctx.drawImage(bitmap, tiles[i].x, tiles[i].y);
+            bitmap.close();
+        });
+        return true;
+    });
 }
 
 function refreshStreams() {
@@ -241,6 +458,57 @@ function refreshStreams() {
     }
 }
 
+// Outage timeline: the frames a sender spooled while its uplink was down, kept by the relay
+// (GET /catchup). The slider steps through them by capture time.
+function loadOutage(clientId, panel) {
+    const select = panel.querySelector('.outage-stream');
+    const slider = panel.querySelector('.outage-slider');
+    const label = panel.querySelector('.outage-time');
+    const image = panel.querySelector('.outage-image');
+    const timelines = {};
+
+    const show = () => {
+        const frames = timelines[select.value] || [];
+        const at = frames[Number(slider.value)];
+        if (at === undefined) {
+            label.textContent = 'No outage frames';
+            image.removeAttribute('src');
+            return;
+        }
+        label.textContent = `${new Date(at).toLocaleString()} (${Number(slider.value) + 1}/${frames.length})`;
+        image.src = `/catchup/frame?clientId=${encodeURIComponent(clientId)}&stream=${select.value}&at=${at}`;
+    };
+    const selectStream = () => {
+        const frames = timelines[select.value] || [];
+        slider.max = Math.max(0, frames.length - 1);
+        slider.value = slider.max;
+        show();
+    };
+
+    Promise.all(STREAM_TYPES.map((streamType) =>
+        fetch(`/catchup?clientId=${encodeURIComponent(clientId)}&stream=${streamType}`)
+            .then((response) => response.json())
+            .then((body) => { timelines[streamType] = body.frames; })))
+        .then(() => {
+            const previous = select.value;
+            select.innerHTML = '';
+            STREAM_TYPES.filter((streamType) => timelines[streamType].length > 0).forEach((streamType) => {
+                const option = document.createElement('option');
+                option.value = streamType;
+                option.textContent = `${streamType} (${timelines[streamType].length})`;
+                select.appendChild(option);
+            });
+            if (timelines[previous] && timelines[previous].length > 0) select.value = previous;
+            select.onchange = selectStream;
+            slider.oninput = show;
+            selectStream();
+        })
+        .catch((error) => {
+            console.error('Error loading outage frames:', error);
+            label.textContent = 'Could not load outage frames';
+        });
+}
+
 // Initialize connection on page load
 connect();
 
@@ -258,6 +526,17 @@ window.addEventListener('beforeunload', () => {
 document.addEventListener('click', (event) => {
     const pinBtn = event.target.closest('.pin-btn');
     const expandBtn = event.target.closest('.expand-btn');
+    const outageBtn = event.target.closest('.outage-btn');
+
+    // Show/hide the outage timeline
+    if (outageBtn) {
+        const panel = document.getElementById(`outage-${outageBtn.dataset.clientId}`);
+        if (!panel) return;
+        const open = panel.style.display === 'none';
+        panel.style.display = open ? 'block' : 'none';
+        if (open) loadOutage(outageBtn.dataset.clientId, panel);
+        return;
+    }
 
     // Pin/unpin
     if (pinBtn) {
@@ -2,9 +2,13 @@ const express = require('express');
 const WebSocket = require('ws');
 const http = require('http');
 const path = require('path');
+const { createRecordParser, recordStart, recordCapturedAt, isKeyframe } = require('./framing');
 
 const app = express();
 const server = http.createServer(app);
+// Senders keep one chunked POST open per stream for as long as they run; Node's default
+// requestTimeout (5 min) would cut those uploads off and force a reconnect.
+server.requestTimeout = 0;
 
 // Request logging middleware
 app.use((req, res, next) => {
@@ -42,49 +46,245 @@ app.use('/.well-known/acme-challenge', express.static(path.join(acmeDir, '.well-
 // Serve static files from public directory
 app.use(express.static(path.join(__dirname, 'public')));
 
-// Store active streams: clientId -> { screen: true|false, webcam: true|false } (presence only; frames come via HTTP)
+// Store active streams: clientId -> { screen: n, webcam: n }, the number of open uploads per stream
+// (presence only; frames come via HTTP). A stream is live while it has at least one.
 const activeStreams = new Map();
 
+// An upload that stays silent this long is taken for dead (half-open connections never end on
+// their own). Senders send at least a keep-alive frame every couple of seconds.
+const UPLOAD_IDLE_TIMEOUT_MS = Number(process.env.UPLOAD_IDLE_TIMEOUT_MS) || 30000;
+
 // HTTP POST endpoints for stream sources (avoids WebSocket control-frame issues with Java/OkHttp)
 // Body: repeated [4-byte big-endian length][length bytes JPEG]. No body parser — read raw stream.
-app.post('/stream/screen', (req, res) => {
+// A request may carry a single frame or stay open and carry frames for the whole session.
+// Every request parses its own body, so a reconnect, or a second per-frame POST in flight,
+// never shares state with the request it overlaps.
+function streamUpload(streamType) {
+    return (req, res) => {
+        const clientId = req.query.clientId;
+        console.log(`[STREAM] POST /stream/${streamType} - clientId: ${clientId || 'MISSING'}`);
+        if (!clientId) {
+            console.error(`[STREAM] Missing clientId for /stream/${streamType}`);
+            res.status(400).send('Missing clientId');
+            return;
+        }
+        registerStream(clientId, streamType);
+        const parser = createRecordParser((record, receivedAt) => {
+            broadcastFrame(clientId, streamType, record, receivedAt);
+        });
+        req.on('data', (chunk) => { parser.feed(chunk); });
+        onUploadDone(req, `/stream/${streamType} for clientId ${clientId}`, () => {
+            unregisterStream(clientId, streamType);
+        });
+        res.status(200).end();
+    };
+}
+
+app.post('/stream/screen', streamUpload('screen'));
+app.post('/stream/webcam', streamUpload('webcam'));
+
+// Calls done exactly once when the upload ends, fails or goes idle for UPLOAD_IDLE_TIMEOUT_MS.
+function onUploadDone(req, label, done) {
+    let finished = false;
+    const finish = () => {
+        if (finished) return;
+        finished = true;
+        done();
+    };
+    req.setTimeout(UPLOAD_IDLE_TIMEOUT_MS, () => {
+        console.error(`[STREAM] ${label} idle for ${UPLOAD_IDLE_TIMEOUT_MS} ms, closing`);
+        req.destroy();
+    });
+    req.on('end', finish);
+    req.on('close', finish);
+    req.on('error', (err) => {
+        console.error(`[STREAM] Error in ${label}:`, err);
+        finish();
+    });
+}
+
+// One upload carrying all of a client's streams (-Dstream.mode=mux). Each record is
+// [4-byte length][1-byte channel][payload]; channel n is the n-th name in ?streams=.
+// "screen" and "webcam" are the client's own streams, any other name ("screen.1") is
+// a sub-stream shown as client "<clientId>-<name>".
+app.post('/stream/mux', (req, res) => {
     const clientId = req.query.clientId;
-    console.log(`[STREAM] POST /stream/screen - clientId: ${clientId || 'MISSING'}`);
-    if (!clientId) {
-        console.error(`[STREAM] Missing clientId for /stream/screen`);
-        res.status(400).send('Missing clientId');
+    const names = String(req.query.streams || '').split(',').filter(Boolean);
+    console.log(`[STREAM] POST /stream/mux - clientId: ${clientId || 'MISSING'}, streams: ${names.join(',')}`);
+    if (!clientId || names.length === 0) {
+        res.status(400).send('Missing clientId or streams');
         return;
     }
-    registerStream(clientId, 'screen');
-    req.on('data', (chunk) => { feedChunk(clientId, 'screen', chunk); });
-    req.on('end', () => { unregisterStream(clientId, 'screen'); });
-    req.on('error', (err) => { 
-        console.error(`[STREAM] Error in /stream/screen for clientId ${clientId}:`, err);
-        unregisterStream(clientId, 'screen'); 
+    const channels = names.map((name) => {
+        const streamType = name.split('.')[0];
+        return {
+            clientId: name === streamType ? clientId : `${clientId}-${name}`,
+            streamType
+        };
+    });
+    if (channels.some((channel) => channel.streamType !== 'screen' && channel.streamType !== 'webcam')) {
+        res.status(400).send('Unknown stream');
+        return;
+    }
+    channels.forEach((channel) => registerStream(channel.clientId, channel.streamType));
+    // Parser and channels belong to this request: a late end of a dropped mux upload only
+    // releases its own registrations, never those of the client's new upload
+    const parser = createRecordParser((record, receivedAt) => {
+        const channel = channels[record[0]];
+        if (channel) broadcastFrame(channel.clientId, channel.streamType, record.subarray(1), receivedAt);
+    });
+    req.on('data', (chunk) => { parser.feed(chunk); });
+    onUploadDone(req, `/stream/mux for clientId ${clientId}`, () => {
+        channels.forEach((channel) => unregisterStream(channel.clientId, channel.streamType));
     });
     res.status(200).end();
 });
 
-app.post('/stream/webcam', (req, res) => {
+// Frames a sender spooled during a network outage (-Dspool.dir), uploaded once it is back,
+// thinned and oldest first. They are not relayed to live viewers, whose screens show newer
+// frames; the relay keeps them per stream instead, for the viewer's outage timeline
+// (GET /catchup). They do not mark the stream active, and are only taken from clients that
+// are streaming or were within CATCHUP_SEEN_MS, since a sender only catches up once its live
+// stream is back. The answer comes once the body is stored: 200 if every record was kept (or
+// already there), 507 if the byte budget pushed any out straight away, 422 for a record that
+// is not a plain JPEG, so the sender never takes a dropped frame for delivered.
+app.post('/stream/catchup', (req, res) => {
     const clientId = req.query.clientId;
-    console.log(`[STREAM] POST /stream/webcam - clientId: ${clientId || 'MISSING'}`);
-    if (!clientId) {
-        console.error(`[STREAM] Missing clientId for /stream/webcam`);
-        res.status(400).send('Missing clientId');
+    const streamType = req.query.stream;
+    if (!clientId || (streamType !== 'screen' && streamType !== 'webcam')) {
+        res.status(400).send('Missing clientId or stream');
         return;
     }
-    registerStream(clientId, 'webcam');
-    req.on('data', (chunk) => { feedChunk(clientId, 'webcam', chunk); });
-    req.on('end', () => { unregisterStream(clientId, 'webcam'); });
-    req.on('error', (err) => { 
-        console.error(`[STREAM] Error in /stream/webcam for clientId ${clientId}:`, err);
-        unregisterStream(clientId, 'webcam'); 
+    if (!recentlySeen(clientId)) {
+        res.status(403).send('Unknown clientId');
+        return;
+    }
+    let stored = 0;
+    let status = 200;
+    const parser = createRecordParser((record, receivedAt) => {
+        const result = storeCatchup(clientId, streamType, record, receivedAt);
+        if (result === CATCHUP_STORED) stored++;
+        else if (result === CATCHUP_EVICTED) status = 507;
+        else if (result === CATCHUP_NOT_JPEG && status === 200) status = 422;
     });
-    res.status(200).end();
+    req.on('data', (chunk) => { parser.feed(chunk); });
+    req.on('end', () => {
+        if (parser.broken && status === 200) status = 413;
+        res.status(status).end();
+    });
+    onUploadDone(req, `/stream/catchup for clientId ${clientId}`, () => {
+        if (stored > 0) broadcastStreamUpdate();
+    });
+});
+
+// The outage frames kept for a stream: ?clientId&stream -> { frames: [capturedAt, ...] }, oldest first.
+app.get('/catchup', (req, res) => {
+    const store = catchups.get(bufferKey(req.query.clientId, req.query.stream));
+    res.json({ frames: store ? store.frames.map((frame) => frame.capturedAt) : [] });
 });
 
-// Per-connection buffers for length-prefixed frame parsing
-const streamBuffers = new Map();
+// One outage frame as a JPEG: ?clientId&stream&at=<capturedAt>.
+app.get('/catchup/frame', (req, res) => {
+    const store = catchups.get(bufferKey(req.query.clientId, req.query.stream));
+    const at = Number(req.query.at);
+    const frame = store && store.frames.find((candidate) => candidate.capturedAt === at);
+    if (!frame) {
+        res.status(404).send('No such frame');
+        return;
+    }
+    res.type('image/jpeg').send(frame.jpeg);
+});
+
+// Outage frames per clientId:streamType -> { frames: [{ capturedAt, jpeg }] sorted by capture time,
+// bytes, updatedAt }. Each stream keeps its newest CATCHUP_MAX_BYTES and all streams together
+// at most CATCHUP_TOTAL_BYTES, the oldest frames of any stream going first; a stream that has had
+// no catch-up for CATCHUP_RETENTION_MS is forgotten.
+const catchups = new Map();
+const CATCHUP_MAX_BYTES = Number(process.env.CATCHUP_MAX_BYTES) || 8 * 1024 * 1024;
+const CATCHUP_TOTAL_BYTES = Number(process.env.CATCHUP_TOTAL_BYTES) || 256 * 1024 * 1024;
+const CATCHUP_RETENTION_MS = Number(process.env.CATCHUP_RETENTION_MS) || 24 * 60 * 60 * 1000;
+const CATCHUP_SEEN_MS = Number(process.env.CATCHUP_SEEN_MS) || 10 * 60 * 1000;
+let catchupBytes = 0;
+
+// clientId -> when its last live upload ended, for clients no longer streaming
+const lastSeen = new Map();
+
+function recentlySeen(clientId) {
+    if (activeStreams.has(clientId)) return true;
+    const at = lastSeen.get(clientId);
+    return at !== undefined && Date.now() - at <= CATCHUP_SEEN_MS;
+}
+
+const CATCHUP_STORED = 'stored';
+const CATCHUP_DUPLICATE = 'duplicate';
+const CATCHUP_NOT_JPEG = 'not-jpeg';
+const CATCHUP_EVICTED = 'evicted';
+
+// Keeps one catch-up record (a timed plain JPEG). Returns CATCHUP_STORED, CATCHUP_DUPLICATE for a
+// frame already kept (re-sent after a sender restart, recognised by its capture time),
+// CATCHUP_NOT_JPEG, or CATCHUP_EVICTED if it was older than everything the budgets let stay.
+function storeCatchup(clientId, streamType, record, receivedAt) {
+    const jpeg = record.subarray(recordStart(record));
+    if (jpeg[0] !== 0xFF) return CATCHUP_NOT_JPEG;
+    const capturedAt = recordCapturedAt(record) ?? receivedAt;
+    const key = bufferKey(clientId, streamType);
+    let store = catchups.get(key);
+    if (!store) {
+        store = { frames: [], bytes: 0, updatedAt: 0 };
+        catchups.set(key, store);
+    }
+    store.updatedAt = Date.now();
+    let at = store.frames.length;
+    while (at > 0 && store.frames[at - 1].capturedAt > capturedAt) at--;
+    if (at > 0 && store.frames[at - 1].capturedAt === capturedAt) return CATCHUP_DUPLICATE;
+    // Copied: the record is a view into the upload's receive buffers
+    const frame = { capturedAt, jpeg: Buffer.from(jpeg) };
+    store.frames.splice(at, 0, frame);
+    store.bytes += frame.jpeg.length;
+    catchupBytes += frame.jpeg.length;
+    let kept = true;
+    while (store.bytes > CATCHUP_MAX_BYTES) {
+        if (dropOldestCatchup(store) === frame) kept = false;
+    }
+    while (catchupBytes > CATCHUP_TOTAL_BYTES) {
+        if (dropOldestCatchup(oldestCatchupStore()) === frame) kept = false;
+    }
+    if (store.frames.length === 0) catchups.delete(key);
+    return kept ? CATCHUP_STORED : CATCHUP_EVICTED;
+}
+
+function dropOldestCatchup(store) {
+    const frame = store.frames.shift();
+    store.bytes -= frame.jpeg.length;
+    catchupBytes -= frame.jpeg.length;
+    return frame;
+}
+
+// The stream holding the oldest frame of all; a scan, as there are only as many as clients
+function oldestCatchupStore() {
+    let oldest = null;
+    catchups.forEach((store) => {
+        if (store.frames.length === 0) return;
+        if (!oldest || store.frames[0].capturedAt < oldest.frames[0].capturedAt) oldest = store;
+    });
+    return oldest;
+}
+
+function forgetCatchup(key) {
+    const store = catchups.get(key);
+    catchupBytes -= store.bytes;
+    catchups.delete(key);
+}
+
+setInterval(() => {
+    const now = Date.now();
+    catchups.forEach((store, key) => {
+        if (now - store.updatedAt > CATCHUP_RETENTION_MS || store.frames.length === 0) forgetCatchup(key);
+    });
+    lastSeen.forEach((at, clientId) => {
+        if (now - at > CATCHUP_SEEN_MS) lastSeen.delete(clientId);
+    });
+}, 60 * 1000).unref();
 
 function bufferKey(clientId, streamType) {
     return `${clientId}:${streamType}`;
@@ -92,47 +292,26 @@ function bufferKey(clientId, streamType) {
 
 function registerStream(clientId, streamType) {
     if (!activeStreams.has(clientId)) {
-        activeStreams.set(clientId, { screen: false, webcam: false });
+        activeStreams.set(clientId, { screen: 0, webcam: 0 });
     }
-    activeStreams.get(clientId)[streamType] = true;
-    streamBuffers.set(bufferKey(clientId, streamType), { buf: Buffer.alloc(0), need: 4, payloadLen: 0 });
-    broadcastStreamUpdate();
-    console.log(`Client ${clientId} connected with ${streamType} stream (HTTP)`);
-}
-
-function feedChunk(clientId, streamType, chunk) {
-    const key = bufferKey(clientId, streamType);
-    let state = streamBuffers.get(key);
-    if (!state) return;
-    state.buf = Buffer.concat([state.buf, chunk]);
-    while (true) {
-        if (state.need === 4 && state.buf.length >= 4) {
-            const len = state.buf.readUInt32BE(0);
-            state.buf = state.buf.subarray(4);
-            if (len > 10 * 1024 * 1024) { state.need = 4; state.payloadLen = 0; break; }
-            state.payloadLen = len;
-            state.need = len;
-        }
-        if (state.need > 0 && state.buf.length >= state.need) {
-            const frame = state.buf.subarray(0, state.need);
-            state.buf = state.buf.subarray(state.need);
-            broadcastFrame(clientId, streamType, frame);
-            state.need = 4;
-            state.payloadLen = 0;
-            continue;
-        }
-        break;
+    const clientStreams = activeStreams.get(clientId);
+    lastSeen.delete(clientId);
+    clientStreams[streamType]++;
+    if (clientStreams[streamType] === 1) {
+        broadcastStreamUpdate();
+        console.log(`Client ${clientId} connected with ${streamType} stream (HTTP)`);
     }
 }
 
+// Ends one upload of the stream; the stream goes offline when its last upload has ended.
 function unregisterStream(clientId, streamType) {
-    streamBuffers.delete(bufferKey(clientId, streamType));
     const clientStreams = activeStreams.get(clientId);
-    if (clientStreams) {
-        clientStreams[streamType] = false;
-        if (!clientStreams.screen && !clientStreams.webcam) {
-            activeStreams.delete(clientId);
-        }
+    if (!clientStreams || clientStreams[streamType] === 0) return;
+    clientStreams[streamType]--;
+    if (clientStreams[streamType] > 0) return;
+    if (clientStreams.screen === 0 && clientStreams.webcam === 0) {
+        activeStreams.delete(clientId);
+        lastSeen.set(clientId, Date.now());
     }
     broadcastStreamUpdate();
     console.log(`Client ${clientId} disconnected ${streamType} stream`);
@@ -147,7 +326,12 @@ const viewWss = new WebSocket.Server({
 
 const viewingClients = new Set();
 
+// A viewer with more than this many bytes still unsent skips frames until it catches up
+const VIEWER_MAX_BUFFERED = Number(process.env.VIEWER_MAX_BUFFERED) || 1024 * 1024;
+
 viewWss.on('connection', (ws) => {
+    // Streams whose records were dropped for this viewer; it gets their next keyframe first
+    ws.awaitingKeyframe = new Set();
     viewingClients.add(ws);
     console.log('Viewing client connected. Total viewers:', viewingClients.size);
     
@@ -164,31 +348,63 @@ viewWss.on('connection', (ws) => {
     });
 });
 
-function broadcastFrame(clientId, streamType, frameData) {
-    const data = Buffer.isBuffer(frameData) ? frameData.toString('base64') : frameData.toString('base64');
-    const message = JSON.stringify({
-        type: 'frame',
-        clientId,
-        streamType,
-        data
-    });
+// Binary frame message to viewers: u8 MESSAGE_FRAME, u8 stream (STREAM_CODES), u16 relay time
+// in ms, u64 receivedAt (ms since epoch), u8 clientId length, clientId (UTF-8), then the record
+// exactly as the sender uploaded it. The stream list still goes out as JSON text.
+const MESSAGE_FRAME = 0x01;
+const STREAM_CODES = { screen: 0, webcam: 1 };
+const FRAME_MESSAGE_HEADER = 13;
+
+function broadcastFrame(clientId, streamType, frameData, receivedAt = Date.now()) {
+    if (viewingClients.size === 0) return;
+    // Built once and shared by every viewer
+    const id = Buffer.from(clientId, 'utf8').subarray(0, 255);
+    const header = Buffer.allocUnsafe(FRAME_MESSAGE_HEADER + id.length);
+    header[0] = MESSAGE_FRAME;
+    header[1] = STREAM_CODES[streamType];
+    header.writeUInt16BE(Math.min(Date.now() - receivedAt, 0xFFFF), 2);
+    header.writeUInt32BE(Math.floor(receivedAt / 2 ** 32), 4);
+    header.writeUInt32BE(receivedAt % 2 ** 32, 8);
+    header[12] = id.length;
+    id.copy(header, FRAME_MESSAGE_HEADER);
+    const message = Buffer.concat([header, frameData]);
 
+    const key = bufferKey(clientId, streamType);
+    const keyframe = isKeyframe(frameData);
     viewingClients.forEach((client) => {
-        if (client.readyState === WebSocket.OPEN) {
-            try {
-                client.send(message);
-            } catch (error) {
-                console.error('Error sending frame to viewing client:', error);
-            }
+        if (client.readyState !== WebSocket.OPEN) return;
+        // A viewer that cannot keep up loses frames instead of queueing them on the server.
+        // Records after a dropped one may depend on it, so resume only at a keyframe.
+        if (client.bufferedAmount > VIEWER_MAX_BUFFERED) {
+            client.awaitingKeyframe.add(key);
+            return;
+        }
+        if (client.awaitingKeyframe.has(key)) {
+            if (!keyframe) return;
+            client.awaitingKeyframe.delete(key);
+        }
+        try {
+            client.send(message, { binary: true });
+        } catch (error) {
+            console.error('Error sending frame to viewing client:', error);
         }
     });
 }
 
+// Number of outage frames the relay holds for the client, over both streams
+function outageFrameCount(clientId) {
+    return ['screen', 'webcam'].reduce((count, streamType) => {
+        const store = catchups.get(bufferKey(clientId, streamType));
+        return count + (store ? store.frames.length : 0);
+    }, 0);
+}
+
 function broadcastStreamUpdate() {
     const streamList = Array.from(activeStreams.entries()).map(([clientId, streams]) => ({
         clientId,
-        hasScreen: streams.screen === true,
-        hasWebcam: streams.webcam === true
+        hasScreen: streams.screen > 0,
+        hasWebcam: streams.webcam > 0,
+        outageFrames: outageFrameCount(clientId)
     }));
 
     const message = JSON.stringify({
@@ -210,8 +426,9 @@ function broadcastStreamUpdate() {
 function sendStreamList(ws) {
     const streamList = Array.from(activeStreams.entries()).map(([clientId, streams]) => ({
         clientId,
-        hasScreen: streams.screen === true,
-        hasWebcam: streams.webcam === true
+        hasScreen: streams.screen > 0,
+        hasWebcam: streams.webcam > 0,
+        outageFrames: outageFrameCount(clientId)
     }));
 
     const message = JSON.stringify({
@@ -231,7 +448,7 @@ app.use((req, res) => {
     console.error(`  User-Agent: ${req.headers['user-agent'] || 'unknown'}`);
     console.error(`  Referer: ${req.headers['referer'] || 'none'}`);
     console.error(`  Query:`, req.query);
-    console.error(`  Available routes: GET /, POST /stream/screen, POST /stream/webcam, WS /view`);
+    console.error(`  Available routes: GET /, POST /stream/screen, POST /stream/webcam, POST /stream/mux, POST /stream/catchup, GET /catchup, GET /catchup/frame, WS /view`);
     res.status(404).send('Not Found');
 });
 